@@ -0,0 +1,88 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.wurm.Fixtures.Landscape;
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Checks that exports are deterministic, by exporting every {@link Landscape}
+ * in every {@link ScalingMode} to a {@link ChecksumMapSink} with one thread,
+ * in rows and with the scalar height encoder, and comparing the checksum to
+ * that of exporting it with multiple threads, in Hilbert order and with the
+ * fastest available height encoder. The conversion must produce exactly the
+ * same map regardless of those settings.
+ *
+ * <p>Runs in the verify phase of the "benchmarks" profile, which fails if any
+ * of the checksums differ. The vectorised height encoder is only compared if
+ * it is available, which means the benchmarks were built with the "vector"
+ * profile as well and the check is run with
+ * {@code -Dcheck.jvmArgs="--add-modules jdk.incubator.vector"}.
+ */
+public final class DeterminismCheck {
+    private DeterminismCheck() {
+        // Prevent instantiation
+    }
+
+    public static void main(String[] args) throws IOException, ProgressReceiver.OperationCancelled {
+        logger.info("Checking against the {} height encoder", HeightEncoder.create().getName());
+        int failures = 0;
+        for (Landscape landscape: Landscape.values()) {
+            for (ScalingMode scalingMode: ScalingMode.values()) {
+                final long expected = export(landscape, scalingMode, 1, "rows", "scalar");
+                failures += check(landscape, scalingMode, MULTIPLE_THREADS, "rows", "scalar", expected);
+                failures += check(landscape, scalingMode, 1, "hilbert", "scalar", expected);
+                failures += check(landscape, scalingMode, 1, "rows", "auto", expected);
+            }
+        }
+        if (failures > 0) {
+            logger.error("{} export(s) differed from the single threaded export in rows with the scalar height encoder", failures);
+            System.exit(1);
+        }
+        logger.info("All exports were identical");
+    }
+
+    /**
+     * Export a landscape with particular settings and compare the checksum to
+     * the expected one.
+     *
+     * @return 1 if the checksum differs, 0 if it is the same.
+     */
+    private static int check(Landscape landscape, ScalingMode scalingMode, int threads, String order, String heightEncoder, long expected) throws IOException, ProgressReceiver.OperationCancelled {
+        final long checksum = export(landscape, scalingMode, threads, order, heightEncoder);
+        if (checksum != expected) {
+            logger.error("{} in {} mode with {} thread(s), in {} and with the {} height encoder: checksum {} instead of {}", landscape, scalingMode, threads, order, heightEncoder, String.format("%016x", checksum), String.format("%016x", expected));
+            return 1;
+        }
+        return 0;
+    }
+
+    private static long export(Landscape landscape, ScalingMode scalingMode, int threads, String order, String heightEncoder) throws IOException, ProgressReceiver.OperationCancelled {
+        final Dimension dim = Fixtures.getDimension(landscape);
+        final Properties properties = new Properties();
+        properties.setProperty(WurmExportSettings.SCALING_MODE, scalingMode.name());
+        properties.setProperty(WurmExportSettings.THREADS, Integer.toString(threads));
+        properties.setProperty("pipeline.sink", "checksum");
+        properties.setProperty("pipeline.order", order);
+        properties.setProperty("pipeline.heightEncoder", heightEncoder);
+        final WurmUnlimitedExporter exporter = new WurmUnlimitedExporter(dim.getWorld(), WurmExportSettings.fromProperties(properties));
+        // The checksum sink does not create a map, so nothing is written to
+        // the maps directory
+        exporter.export(new File(System.getProperty("java.io.tmpdir")), landscape.name(), null, null);
+        return exporter.getChecksum();
+    }
+
+    /**
+     * The number of threads to compare a single threaded export to; more than
+     * one even on machines with a single processor.
+     */
+    private static final int MULTIPLE_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 4);
+
+    private static final Logger logger = LoggerFactory.getLogger(DeterminismCheck.class);
+}
@@ -0,0 +1,143 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.minecraft.Material;
+import org.pepsoft.util.PerlinNoise;
+import org.pepsoft.worldpainter.*;
+import org.pepsoft.worldpainter.layers.DeciduousForest;
+import org.pepsoft.worldpainter.layers.Frost;
+import org.pepsoft.worldpainter.layers.PineForest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.pepsoft.worldpainter.Constants.*;
+
+/**
+ * Synthetic WorldPainter worlds for the benchmarks. They are generated from
+ * fixed seeds, so every run benchmarks the same data.
+ */
+final class Fixtures {
+    private Fixtures() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Get the surface dimension of the synthetic world for a particular kind
+     * of landscape. The dimension is {@link #SIZE_IN_TILES} tiles square,
+     * starting at tile 0,0.
+     */
+    static synchronized Dimension getDimension(Landscape landscape) {
+        return DIMENSIONS.computeIfAbsent(landscape, Fixtures::createDimension);
+    }
+
+    private static Dimension createDimension(Landscape landscape) {
+        HeightMapTileFactory tileFactory = TileFactoryFactory.createNoiseTileFactory(SEED, Terrain.GRASS, MAX_HEIGHT, WATER_LEVEL + 4, WATER_LEVEL, false, true, 20f, 1.0);
+        World2 world = new World2(WurmPlatformProvider.WURM_UNLIMITED, MAX_HEIGHT);
+        world.setName(landscape.name());
+        Dimension dim = new Dimension(world, SEED, tileFactory, DIM_NORMAL, MAX_HEIGHT);
+        world.addDimension(dim);
+        if (landscape == Landscape.CUSTOM_TERRAIN) {
+            Terrain.setCustomMaterial(0, new MixedMaterial("W:Steppe", new MixedMaterial.Row(Material.GRASS, 1000, 1.0f), -1, null));
+            Terrain.setCustomMaterial(1, new MixedMaterial("W:Tundra", new MixedMaterial.Row(Material.DIRT, 1000, 1.0f), -1, null));
+            Terrain.setCustomMaterial(2, new MixedMaterial("Gravelly", new MixedMaterial.Row(Material.GRAVEL, 1000, 1.0f), -1, null));
+            Terrain.setCustomMaterial(3, new MixedMaterial("Sandstone", new MixedMaterial.Row(Material.SANDSTONE, 1000, 1.0f), -1, null));
+        }
+        PerlinNoise hills = new PerlinNoise(SEED), detail = new PerlinNoise(SEED + 1), vegetation = new PerlinNoise(SEED + 2);
+        for (int tileX = 0; tileX < SIZE_IN_TILES; tileX++) {
+            for (int tileY = 0; tileY < SIZE_IN_TILES; tileY++) {
+                Tile tile = new Tile(tileX, tileY, MAX_HEIGHT);
+                for (int dx = 0; dx < TILE_SIZE; dx++) {
+                    for (int dy = 0; dy < TILE_SIZE; dy++) {
+                        final int x = (tileX << TILE_SIZE_BITS) | dx, y = (tileY << TILE_SIZE_BITS) | dy;
+                        final float noise = hills.getPerlinNoise(x / 128.0, y / 128.0) + detail.getPerlinNoise(x / 16.0, y / 16.0) / 8;
+                        float height;
+                        Terrain terrain = Terrain.GRASS;
+                        switch (landscape) {
+                            case FLAT:
+                                height = WATER_LEVEL + 4;
+                                break;
+                            case MOUNTAINOUS:
+                                height = WATER_LEVEL + 40 + noise * 240;
+                                if (height > WATER_LEVEL + 90) {
+                                    terrain = Terrain.STONE;
+                                } else if (height > WATER_LEVEL + 60) {
+                                    terrain = Terrain.ROCK;
+                                } else if (height < WATER_LEVEL + 2) {
+                                    terrain = Terrain.BEACHES;
+                                }
+                                break;
+                            case MOSTLY_WATER:
+                                height = WATER_LEVEL - 12 + noise * 40;
+                                if (Math.abs(height - WATER_LEVEL) < 3) {
+                                    terrain = Terrain.BEACHES;
+                                } else if (height < WATER_LEVEL - 15) {
+                                    terrain = Terrain.SAND;
+                                }
+                                break;
+                            case FORESTED:
+                                height = WATER_LEVEL + 8 + noise * 40;
+                                break;
+                            case CUSTOM_TERRAIN:
+                                height = WATER_LEVEL + 8 + noise * 60;
+                                terrain = Terrain.values()[Terrain.CUSTOM_1.ordinal() + ((int) ((detail.getPerlinNoise(x / 32.0, y / 32.0) + 0.5f) * 4) & 3)];
+                                break;
+                            default:
+                                throw new InternalError();
+                        }
+                        tile.setHeight(dx, dy, Math.max(Math.min(height, MAX_HEIGHT - 1), 0));
+                        tile.setTerrain(dx, dy, terrain);
+                        tile.setWaterLevel(dx, dy, WATER_LEVEL);
+                        if (landscape == Landscape.FORESTED) {
+                            final int density = Math.max(Math.min((int) ((vegetation.getPerlinNoise(x / 64.0, y / 64.0) + 0.5f) * 24), 15), 0);
+                            tile.setLayerValue((noise > 0) ? PineForest.INSTANCE : DeciduousForest.INSTANCE, dx, dy, density);
+                            if (height > WATER_LEVEL + 20) {
+                                tile.setBitLayerValue(Frost.INSTANCE, dx, dy, true);
+                            }
+                        }
+                    }
+                }
+                dim.addTile(tile);
+            }
+        }
+        return dim;
+    }
+
+    /**
+     * The size of the synthetic dimensions in tiles in each direction.
+     */
+    static final int SIZE_IN_TILES = 4;
+
+    static final int MAX_HEIGHT = 256, WATER_LEVEL = 62;
+
+    private static final long SEED = 20151023L;
+    private static final Map<Landscape, Dimension> DIMENSIONS = new EnumMap<>(Landscape.class);
+
+    enum Landscape {
+        /**
+         * Flat grass land just above the water level.
+         */
+        FLAT,
+
+        /**
+         * High hills of grass, rock and stone, with some beaches.
+         */
+        MOUNTAINOUS,
+
+        /**
+         * Mostly under water, with beaches and islands.
+         */
+        MOSTLY_WATER,
+
+        /**
+         * Rolling hills covered in deciduous and pine forest, with frost on
+         * the higher parts.
+         */
+        FORESTED,
+
+        /**
+         * Hills of four custom terrain types, two of which are mapped to Wurm
+         * Unlimited tile types by name.
+         */
+        CUSTOM_TERRAIN
+    }
+}
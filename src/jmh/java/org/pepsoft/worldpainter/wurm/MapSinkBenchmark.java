@@ -0,0 +1,62 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.Tiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Benchmarks of writing staging buffers to an {@link InMemoryMapSink} of
+ * various sizes, visiting the tiles of the entire map in each of the orders
+ * supported by {@link TileSequence}. Every operation is one WorldPainter tile
+ * in Wurm scaling, so the scores are in tiles per second. Large maps don't
+ * fit in the processor caches, so this mostly measures how well the order
+ * matches the row by row layout of the map. To see the cache and TLB misses,
+ * run with the Linux perf profiler, for instance:
+ *
+ * <pre>mvn -P benchmarks verify exec:exec -Djmh.args="MapSinkBenchmark -prof perfnorm"</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class MapSinkBenchmark {
+    @Setup(Level.Trial)
+    public void setup() {
+        sink = new InMemoryMapSink(powerOfTwo);
+        final int tilesPerSide = (1 << powerOfTwo) / TILE_SIZE;
+        tiles = TileSequence.inOrder(order, 0, 0, tilesPerSide - 1, tilesPerSide - 1);
+        buffer = new TileBuffer(TILE_SIZE);
+        buffer.reset(0, 0, TILE_SIZE);
+        final Tiles.Tile[] types = {Tiles.Tile.TILE_GRASS, Tiles.Tile.TILE_DIRT, Tiles.Tile.TILE_SAND, Tiles.Tile.TILE_ROCK};
+        for (int i = 0; i < TILE_SIZE * TILE_SIZE; i++) {
+            buffer.setSurfaceTile(i, types[i % types.length], (short) (i % 1000));
+            buffer.setRockHeight(i, (short) (i % 1000 - 30));
+        }
+    }
+
+    /**
+     * Writing one staging buffer to the next tile in the sequence.
+     */
+    @Benchmark
+    public void setTiles() {
+        buffer.reset(tiles.getX(tileIndex) * TILE_SIZE, tiles.getY(tileIndex) * TILE_SIZE, TILE_SIZE);
+        sink.setTiles(buffer);
+        tileIndex = (tileIndex + 1) % tiles.size();
+    }
+
+    @Param({"10", "14"})
+    public int powerOfTwo;
+
+    @Param({"rows", "zorder", "hilbert"})
+    public String order;
+
+    private InMemoryMapSink sink;
+    private TileSequence tiles;
+    private TileBuffer buffer;
+    private int tileIndex;
+}
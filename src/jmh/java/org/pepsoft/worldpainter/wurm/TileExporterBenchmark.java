@@ -0,0 +1,193 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.wurm.Fixtures.Landscape;
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Benchmarks of the conversion kernels of {@link TileExporter}, for every
+ * combination of {@link Landscape} and {@link ScalingMode}, writing to an
+ * {@link InMemoryMapSink}. Every operation is one WorldPainter tile, so the
+ * scores are in tiles per second. Run with:
+ *
+ * <pre>mvn -P benchmarks verify exec:exec</pre>
+ *
+ * <p>which also reports the allocation rate through the JMH GC profiler.
+ * Extra JMH arguments can be passed with {@code -Djmh.args="..."}, for
+ * instance {@code -Djmh.args="processTile -p landscape=FLAT"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TileExporterBenchmark {
+    @Setup(Level.Trial)
+    public void setup() {
+        dim = Fixtures.getDimension(landscape);
+        scaledHorizontally = scalingMode == ScalingMode.MINECRAFT;
+        MapSink sink = new InMemoryMapSink(10);
+        tileExporter = new TileExporter(dim, Fixtures.WATER_LEVEL, 0, 0, sink, scalingMode, WurmExportSettings.defaultConfig(), new MaterialCache(dim.getSeed(), dim.getMaxHeight()), new ExportStatistics());
+        // Leave the scratch buffers filled for the kernels which depend on
+        // them
+        tileExporter.processTile(1, 1);
+        tile = dim.getTile(1, 1);
+        for (int x = 0; x < TileExporter.CORNER_STRIDE; x++) {
+            for (int y = 0; y < TileExporter.CORNER_STRIDE; y++) {
+                cornerHeights[x * TileExporter.CORNER_STRIDE + y] = tile.getHeight(Math.min(x, TILE_SIZE - 1), Math.min(y, TILE_SIZE - 1));
+            }
+        }
+        Arrays.fill(topLayerDepths, 3.0f);
+        heightEncoder = HeightEncoder.create();
+        logger.info("Height encoder: {}", heightEncoder.getName());
+    }
+
+    /**
+     * The complete conversion of a tile.
+     */
+    @Benchmark
+    public void processTile() {
+        nextTile();
+        tileExporter.processTile(tileX, tileY);
+    }
+
+    /**
+     * Sampling the tile and its surroundings into the rasters, plus in
+     * Minecraft mode the downsampling of the corners.
+     */
+    @Benchmark
+    public void sampleTile() {
+        nextTile();
+        tileExporter.sampleTile(tileX, tileY, scaledHorizontally);
+        if (scaledHorizontally) {
+            tileExporter.downsampleTile();
+        }
+    }
+
+    /**
+     * Determining the prevalent terrain type and block for every 4x4 area of
+     * a tile, as done in Minecraft mode.
+     */
+    @Benchmark
+    public void prevalentTerrainAndBlock(Blackhole blackhole) {
+        for (int x = 0; x < TILE_SIZE; x += 4) {
+            for (int y = 0; y < TILE_SIZE; y += 4) {
+                blackhole.consume(tileExporter.getPrevalentTerrainOrdinal(x + TileExporter.HALO, y + TileExporter.HALO));
+                blackhole.consume(tileExporter.getPrevalentBlockID(x + TileExporter.HALO, y + TileExporter.HALO));
+            }
+        }
+    }
+
+    /**
+     * Calculating the average heights and maximum slopes of all tiles from
+     * the corner heights.
+     */
+    @Benchmark
+    public void tileHeightsAndSlopes() {
+        TileExporter.computeTileHeightsAndSlopes(cornerHeights, tileHeights, slopes, scaledHorizontally ? TILE_SIZE / 4 : TILE_SIZE);
+    }
+
+    /**
+     * Converting the corner heights and top layer depths of all tiles to Wurm
+     * Unlimited dirt and rock heights with the scalar implementation.
+     */
+    @Benchmark
+    public void encodeHeightsScalar() {
+        encodeHeights(scalarHeightEncoder);
+    }
+
+    /**
+     * Converting the corner heights and top layer depths of all tiles to Wurm
+     * Unlimited dirt and rock heights with the fastest available
+     * implementation, which is vectorised if the JVM has the Vector API and
+     * the benchmarks were built with the "vector" profile.
+     */
+    @Benchmark
+    public void encodeHeights() {
+        encodeHeights(heightEncoder);
+    }
+
+    private void encodeHeights(HeightEncoder encoder) {
+        final int wTileSize = scaledHorizontally ? TILE_SIZE / 4 : TILE_SIZE;
+        for (int x = 0; x < wTileSize; x++) {
+            encoder.encodeRow(cornerHeights, x * TileExporter.CORNER_STRIDE, topLayerDepths, x * TILE_SIZE, Fixtures.WATER_LEVEL, wurmHeights, rockHeights, wTileSize);
+        }
+    }
+
+    /**
+     * Decoding the Frost and tree layers of a tile into rasters, averaged over
+     * every 4x4 area in Minecraft mode.
+     */
+    @Benchmark
+    public int decodeLayers() {
+        return tileExporter.decodeLayers(tile, scaledHorizontally);
+    }
+
+    /**
+     * Placing grass and flowers on every tile of the area of the last
+     * processed WorldPainter tile, from the prepared noise buffers, into the
+     * staging buffer.
+     */
+    @Benchmark
+    public void placeGrass() {
+        final int wTileSize = scaledHorizontally ? TILE_SIZE / 4 : TILE_SIZE;
+        for (int x = 0; x < wTileSize; x++) {
+            for (int y = 0; y < wTileSize; y++) {
+                tileExporter.placeGrass(Fixtures.WATER_LEVEL + 4, Fixtures.WATER_LEVEL, x * TILE_SIZE + y);
+            }
+        }
+    }
+
+    /**
+     * Cycle through the tiles of the fixture, so that the benchmarks don't
+     * just measure one tile.
+     */
+    private void nextTile() {
+        tileX = tileIndex % Fixtures.SIZE_IN_TILES;
+        tileY = (tileIndex / Fixtures.SIZE_IN_TILES) % Fixtures.SIZE_IN_TILES;
+        tileIndex++;
+    }
+
+    /**
+     * Run the benchmarks with the JMH GC profiler, to report the allocation
+     * rate. Any arguments are passed on to JMH.
+     */
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] jmhArgs = Arrays.copyOf(args, args.length + 2);
+        jmhArgs[args.length] = "-prof";
+        jmhArgs[args.length + 1] = "gc";
+        Main.main(jmhArgs);
+    }
+
+    @Param
+    public Landscape landscape;
+
+    @Param
+    public ScalingMode scalingMode;
+
+    private Dimension dim;
+    private TileExporter tileExporter;
+    private Tile tile;
+    private boolean scaledHorizontally;
+    private int tileIndex, tileX, tileY;
+    private HeightEncoder heightEncoder;
+    private final HeightEncoder scalarHeightEncoder = new HeightEncoder();
+    private final float[] cornerHeights = new float[TileExporter.CORNER_STRIDE * TileExporter.CORNER_STRIDE], tileHeights = new float[TILE_SIZE * TILE_SIZE], slopes = new float[TILE_SIZE * TILE_SIZE], topLayerDepths = new float[TILE_SIZE * TILE_SIZE];
+    private final short[] wurmHeights = new short[TILE_SIZE * TILE_SIZE], rockHeights = new short[TILE_SIZE * TILE_SIZE];
+
+    private static final Logger logger = LoggerFactory.getLogger(TileExporterBenchmark.class);
+}
@@ -0,0 +1,49 @@
+package org.pepsoft.worldpainter.wurm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MapSink} which does not write the tiles anywhere, but only
+ * calculates a checksum of them, for checking that exports are deterministic
+ * without having to keep or compare the map files.
+ *
+ * <p>The checksum is the sum of a hash of every encoded tile, its coordinates
+ * and its layer, so it does not depend on the order in which the tiles are
+ * written, and the tiles are hashed as they are written, from any number of
+ * threads, so that nothing is kept in memory. Every tile is assumed to be
+ * written once, as overwriting one adds to the checksum rather than replacing
+ * its contribution.
+ */
+final class ChecksumMapSink extends EncodedMapSink {
+    /**
+     * Get the checksum of the tiles written so far. Must not be invoked while
+     * tiles are being written.
+     */
+    long getChecksum() {
+        return checksum.sum();
+    }
+
+    @Override
+    void setEncodedSurfaceTile(int x, int y, int encodedTile) {
+        checksum.add(CoordinateRandom.hash(encodedTile, x, y, LAYER_SURFACE));
+    }
+
+    @Override
+    void setEncodedRockTile(int x, int y, int encodedTile) {
+        checksum.add(CoordinateRandom.hash(encodedTile, x, y, LAYER_ROCK));
+    }
+
+    @Override
+    public void saveChanges() {
+        // Do nothing
+    }
+
+    @Override
+    public void close() {
+        // Do nothing
+    }
+
+    private final LongAdder checksum = new LongAdder();
+
+    private static final int LAYER_SURFACE = 0, LAYER_ROCK = 1;
+}
@@ -0,0 +1,60 @@
+package org.pepsoft.worldpainter.wurm;
+
+/**
+ * A stateless random number generator which derives its numbers by hashing a
+ * seed, a pair of coordinates and a purpose, using the SplitMix64 finaliser.
+ * Unlike a {@link java.util.Random} which is reseeded per tile and then drawn
+ * from in iteration order, every decision gets its own independent number, so
+ * the outcome does not depend on the order in which tiles or layers are
+ * processed, and nothing needs to be allocated.
+ *
+ * <p>The purpose distinguishes the different decisions made for the same
+ * coordinates, so that for instance whether a tree is placed and which type
+ * of tree it is are not correlated.
+ */
+final class CoordinateRandom {
+    private CoordinateRandom() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Get a pseudo random integer between zero (inclusive) and
+     * {@code bound} (exclusive).
+     */
+    static int nextInt(long seed, int x, int y, int purpose, int bound) {
+        // Multiply the high 32 bits by the bound rather than using modulo, to
+        // avoid a division. The bias is negligible for the small bounds used
+        return (int) (((hash(seed, x, y, purpose) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Get a pseudo random float between zero (inclusive) and one (exclusive).
+     */
+    static float nextFloat(long seed, int x, int y, int purpose) {
+        return (hash(seed, x, y, purpose) >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Derive a seed for a particular use, for instance a layer, from a base
+     * seed.
+     */
+    static long deriveSeed(long seed, long salt) {
+        return mix(seed + mix(salt + GOLDEN_GAMMA));
+    }
+
+    static long hash(long seed, int x, int y, int purpose) {
+        long z = seed + ((((long) x) << 32) | (y & 0xffffffffL)) * GOLDEN_GAMMA;
+        return mix(mix(z) + (purpose + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * The SplitMix64 finaliser (variant 13 of David Stafford's mixers).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+}
@@ -0,0 +1,28 @@
+package org.pepsoft.worldpainter.wurm;
+
+/**
+ * A {@link MapSink} which discards all tiles written to it, for timing the
+ * conversion of tiles without the cost of storing them. The tiles are still
+ * encoded.
+ */
+final class DiscardMapSink extends EncodedMapSink {
+    @Override
+    void setEncodedSurfaceTile(int x, int y, int encodedTile) {
+        // Do nothing
+    }
+
+    @Override
+    void setEncodedRockTile(int x, int y, int encodedTile) {
+        // Do nothing
+    }
+
+    @Override
+    public void saveChanges() {
+        // Do nothing
+    }
+
+    @Override
+    public void close() {
+        // Do nothing
+    }
+}
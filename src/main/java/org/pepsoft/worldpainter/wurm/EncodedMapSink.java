@@ -0,0 +1,56 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.GrassData;
+import com.wurmonline.mesh.Tiles;
+
+import static com.wurmonline.mesh.Tiles.Tile.TILE_ROCK;
+
+/**
+ * Base class for {@link MapSink}s which store the surface and rock layers as
+ * encoded tiles themselves, in the same encoding as the Wurm Unlimited map
+ * files. Subclasses only have to provide the storage.
+ */
+abstract class EncodedMapSink implements MapSink {
+    /**
+     * Set the encoded surface tile at a particular location.
+     */
+    abstract void setEncodedSurfaceTile(int x, int y, int encodedTile);
+
+    /**
+     * Set the encoded rock tile at a particular location.
+     */
+    abstract void setEncodedRockTile(int x, int y, int encodedTile);
+
+    /**
+     * Encode every tile of the staging buffer once, straight from its
+     * contents, without reading back any existing tiles. Writes the tiles row
+     * by row.
+     */
+    @Override
+    public void setTiles(TileBuffer tiles) {
+        final int originX = tiles.getX(), originY = tiles.getY(), size = tiles.getSize(), stride = tiles.getStride();
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                final int x = originX + dx, y = originY + dy, i = dx * stride + dy;
+                final short height = tiles.getHeight(i);
+                final int encodedTile;
+                switch (tiles.getFloraKind(i)) {
+                    case TileBuffer.FLORA_GRASS:
+                        encodedTile = Tiles.encode(height, tiles.getSurfaceTypeId(i), GrassData.encodeGrassTileData(tiles.getGrowthStage(i), tiles.getFlowerType(i)));
+                        break;
+                    case TileBuffer.FLORA_TREE:
+                        encodedTile = Tiles.encode(height, tiles.getTreeType(i).asNormalTree().id, Tiles.encodeTreeData(tiles.getAge(i), false, false, tiles.getGrassGrowthStage(i)));
+                        break;
+                    case TileBuffer.FLORA_BUSH:
+                        encodedTile = Tiles.encode(height, tiles.getBushType(i).asNormalBush().id, Tiles.encodeTreeData(tiles.getAge(i), false, false, tiles.getGrassGrowthStage(i)));
+                        break;
+                    default:
+                        encodedTile = Tiles.encode(height, tiles.getSurfaceTypeId(i), (byte) 0);
+                        break;
+                }
+                setEncodedSurfaceTile(x, y, encodedTile);
+                setEncodedRockTile(x, y, Tiles.encode(tiles.getRockHeight(i), TILE_ROCK.id, (byte) 0));
+            }
+        }
+    }
+}
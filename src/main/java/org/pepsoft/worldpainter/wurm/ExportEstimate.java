@@ -0,0 +1,209 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.HeightMapTileFactory;
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE_BITS;
+
+/**
+ * An estimate of how long an export will take, how large the map files will
+ * be and how much heap it needs, for showing on the
+ * {@link WurmSettingsDialog} before the export is started.
+ *
+ * <p>The duration is extrapolated from the time it takes to convert a random
+ * sample of tiles with a {@link TileExporter}, writing to a
+ * {@link DiscardMapSink}. The size of the map files does not depend on the
+ * contents of the world, only on the size of the map. The heap needed is
+ * dominated by the map itself when it is written through the Wurm API, which
+ * keeps the entire map on the heap; when the map files are written directly
+ * only the buffers of the exporter threads are on the heap.
+ */
+final class ExportEstimate {
+    private ExportEstimate(ScalingMode scalingMode, int powerOfTwo, long tileCount, long nanosPerTile, long mapBytes) {
+        this.scalingMode = scalingMode;
+        this.powerOfTwo = powerOfTwo;
+        this.tileCount = tileCount;
+        this.nanosPerTile = nanosPerTile;
+        this.mapBytes = mapBytes;
+    }
+
+    ScalingMode getScalingMode() {
+        return scalingMode;
+    }
+
+    int getPowerOfTwo() {
+        return powerOfTwo;
+    }
+
+    /**
+     * Get the number of WorldPainter tiles which will be exported.
+     */
+    long getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Get the total size of the map files.
+     */
+    long getMapBytes() {
+        return mapBytes;
+    }
+
+    /**
+     * Get the estimated time it will take to export the tiles, assuming the
+     * export scales linearly with the number of threads, up to the number of
+     * processors.
+     */
+    long getDurationSeconds(int threads) {
+        final int effectiveThreads = Math.max(Math.min(threads, Runtime.getRuntime().availableProcessors()), 1);
+        return nanosPerTile * tileCount / effectiveThreads / 1000000000L;
+    }
+
+    /**
+     * Get the estimated amount of heap an export with the specified settings
+     * needs, in addition to the heap already in use.
+     */
+    long getPeakHeapBytes(WurmExportSettings settings) {
+        final Properties config = settings.getConfig();
+        final int threads = settings.getThreads();
+        final int writerThreads = Integer.parseInt(config.getProperty("pipeline.writers", "1")), queueDepth = Integer.parseInt(config.getProperty("pipeline.queueDepth", "16"));
+        final long pipelineBytes = threads * TILE_EXPORTER_BYTES + (queueDepth + threads + writerThreads) * TILE_BUFFER_BYTES;
+        switch (config.getProperty("pipeline.sink", "map")) {
+            case "map":
+                return settings.isStreaming() ? pipelineBytes : (mapBytes + pipelineBytes);
+            case "memory":
+                return (IN_MEMORY_BYTES_PER_CELL << (powerOfTwo * 2)) + pipelineBytes;
+            default:
+                return pipelineBytes;
+        }
+    }
+
+    /**
+     * Get the amount of heap which is still available, as far as can be
+     * determined; garbage which has not yet been collected counts as in use.
+     */
+    static long getAvailableHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Measure the export of a dimension. This converts a sample of tiles and
+     * may derive the map format (see {@link MapFormat#get()}), so it takes a
+     * while and should not be invoked on the event dispatch thread. The
+     * dimension must not be modified while it is being measured.
+     *
+     * @param dim The dimension to measure.
+     * @param scalingMode The scaling mode with which it will be exported.
+     * @param powerOfTwo The size of the map as a power of two.
+     * @param config The tuning parameters of the exporter.
+     * @return The estimate, or {@code null} if the thread was interrupted.
+     */
+    static ExportEstimate measure(Dimension dim, ScalingMode scalingMode, int powerOfTwo, Properties config) {
+        final int mapSizeInTiles = WurmUnlimitedExporter.getMapSizeInTiles(powerOfTwo, scalingMode == ScalingMode.MINECRAFT);
+        final int tileX1 = dim.getLowestX(), tileX2 = tileX1 + mapSizeInTiles - 1, tileY1 = dim.getLowestY(), tileY2 = tileY1 + mapSizeInTiles - 1;
+        final List<Tile> tiles = new ArrayList<>();
+        for (Tile tile: dim.getTiles()) {
+            if ((tile.getX() >= tileX1) && (tile.getX() <= tileX2) && (tile.getY() >= tileY1) && (tile.getY() <= tileY2)) {
+                tiles.add(tile);
+            }
+        }
+        long nanosPerTile = 0;
+        if (! tiles.isEmpty()) {
+            final int waterLevel = ((HeightMapTileFactory) dim.getTileFactory()).getWaterHeight();
+            final TileExporter tileExporter = new TileExporter(dim, waterLevel, -tileX1 << TILE_SIZE_BITS, -tileY1 << TILE_SIZE_BITS, new DiscardMapSink(), scalingMode, config, new MaterialCache(dim.getSeed(), dim.getMaxHeight()), new ExportStatistics());
+            final Random random = new Random();
+            long totalNanos = 0;
+            for (int i = 0; i < WARM_UP_TILES + SAMPLE_TILES; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                final Tile tile = tiles.get(random.nextInt(tiles.size()));
+                final long start = System.nanoTime();
+                tileExporter.processTile(tile.getX(), tile.getY());
+                if (i >= WARM_UP_TILES) {
+                    totalNanos += System.nanoTime() - start;
+                }
+            }
+            nanosPerTile = totalNanos / SAMPLE_TILES;
+        }
+        return new ExportEstimate(scalingMode, powerOfTwo, tiles.size(), nanosPerTile, getMapBytes(powerOfTwo));
+    }
+
+    private static long getMapBytes(int powerOfTwo) {
+        final long cells = 1L << (powerOfTwo * 2);
+        try {
+            long bytes = 0;
+            for (MapFormat.LayerFormat layer: MapFormat.get().getLayers()) {
+                bytes += layer.header.length + layer.bytesPerCell * cells;
+            }
+            return bytes;
+        } catch (IOException e) {
+            logger.debug("Could not determine map format; assuming default size of map files", e);
+            return DEFAULT_BYTES_PER_CELL * cells;
+        }
+    }
+
+    /**
+     * Format a number of bytes in a human readable way.
+     */
+    static String formatBytes(long bytes) {
+        if (bytes < 1024L * 1024L) {
+            return ((bytes + 1023) / 1024) + " KB";
+        } else if (bytes < 1024L * 1024L * 1024L) {
+            return ((bytes + 1024L * 1024L - 1) / (1024L * 1024L)) + " MB";
+        } else {
+            return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+        }
+    }
+
+    private final ScalingMode scalingMode;
+    private final int powerOfTwo;
+    private final long tileCount, nanosPerTile, mapBytes;
+
+    /**
+     * The number of tiles converted before the timing starts, to give the JIT
+     * compiler a chance to compile the conversion.
+     */
+    private static final int WARM_UP_TILES = 4;
+
+    /**
+     * The number of tiles to time.
+     */
+    private static final int SAMPLE_TILES = 16;
+
+    /**
+     * The heap used by a {@link TileExporter}, mostly for its scratch buffers,
+     * rounded up generously.
+     */
+    private static final long TILE_EXPORTER_BYTES = 4L * 1024L * 1024L;
+
+    /**
+     * The heap used by a {@link TileBuffer}, rounded up.
+     */
+    private static final long TILE_BUFFER_BYTES = 256L * 1024L;
+
+    /**
+     * The size of the map files per tile if the map format can't be
+     * determined: five layer files with four bytes per tile.
+     */
+    private static final long DEFAULT_BYTES_PER_CELL = 20;
+
+    /**
+     * The heap used per tile by an {@link InMemoryMapSink}: the surface and
+     * rock layers, with four bytes per tile each.
+     */
+    private static final long IN_MEMORY_BYTES_PER_CELL = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportEstimate.class);
+}
@@ -0,0 +1,168 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A record of how far an export written with a {@link StreamingMapSink} has
+ * progressed, stored in the directory of the map being created, so that an
+ * export which was cancelled or crashed can be resumed by a later export of
+ * the same world with the same settings.
+ *
+ * <p>The tiles are exported row by row, but on multiple threads, so they
+ * complete slightly out of order. The journal counts the written tiles per
+ * row of WorldPainter tiles, and a checkpoint records the number of leading
+ * rows which are complete, after making sure the map files have been written
+ * to disk. Resuming starts at the first row which was not complete. Since
+ * every WorldPainter tile maps to its own area of the map, tiles written
+ * after the checkpoint are simply written again. When the tiles are exported
+ * in another order (see {@link WurmExportSettings#defaultConfig()}) the rows
+ * complete later, so checkpoints cover less of the export, but resuming
+ * works the same.
+ *
+ * <p>At each checkpoint the stripes of the map files which only contain
+ * completed rows are released (see {@link StreamingMapSink#releaseRows(int)}).
+ *
+ * <p>Checkpoints are made by the thread coordinating the export, at most
+ * once every {@link #CHECKPOINT_INTERVAL} seconds. {@link #tileWritten(int)}
+ * may be invoked from any thread.
+ */
+final class ExportJournal {
+    /**
+     * Create a journal for an export.
+     *
+     * @param file The file to write the journal to.
+     * @param settingsHash The hash of the settings of the export (see
+     *                     {@link TileManifest#hashSettings(Object...)}).
+     * @param worldHash The hash of the contents of the world.
+     * @param tileY1 The Y coordinate of the first row of tiles.
+     * @param tilesPerRow The number of tiles to export in each row.
+     * @param completedRows The number of leading rows which have already been
+     *                      exported, when resuming.
+     * @param mapSink The map sink to which the tiles are written.
+     * @param mapRowsPerTileRow The number of rows of the map to which each
+     *                          row of tiles is exported.
+     */
+    ExportJournal(File file, long settingsHash, long worldHash, int tileY1, int[] tilesPerRow, int completedRows, StreamingMapSink mapSink, int mapRowsPerTileRow) {
+        this.file = file;
+        this.settingsHash = settingsHash;
+        this.worldHash = worldHash;
+        this.tileY1 = tileY1;
+        this.tilesPerRow = tilesPerRow;
+        this.mapSink = mapSink;
+        this.mapRowsPerTileRow = mapRowsPerTileRow;
+        tilesWritten = new AtomicIntegerArray(tilesPerRow.length);
+        this.completedRows = completedRows;
+        lastCheckpointTime = System.nanoTime();
+    }
+
+    /**
+     * Get the number of leading rows which are completely exported, as of
+     * the last checkpoint.
+     */
+    int getCompletedRows() {
+        return completedRows;
+    }
+
+    /**
+     * Record that a tile has been written to the map sink.
+     *
+     * @param tileY The Y coordinate of the tile.
+     */
+    void tileWritten(int tileY) {
+        tilesWritten.incrementAndGet(tileY - tileY1);
+    }
+
+    /**
+     * Make a checkpoint if the last one was long enough ago and more rows
+     * have been completed since.
+     */
+    void checkpointIfDue() throws IOException {
+        if ((System.nanoTime() - lastCheckpointTime) >= CHECKPOINT_INTERVAL_NANOS) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Make a checkpoint, if more rows have been completed since the last one.
+     */
+    void checkpoint() throws IOException {
+        lastCheckpointTime = System.nanoTime();
+        int rows = completedRows;
+        while ((rows < tilesPerRow.length) && (tilesWritten.get(rows) >= tilesPerRow[rows])) {
+            rows++;
+        }
+        if (rows == completedRows) {
+            return;
+        }
+        mapSink.saveChanges();
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(settingsHash);
+            out.writeLong(worldHash);
+            out.writeInt(rows);
+        }
+        if (file.exists() && (! file.delete())) {
+            throw new IOException("Could not delete " + file);
+        }
+        if (! tmpFile.renameTo(file)) {
+            throw new IOException("Could not move " + tmpFile + " to " + file);
+        }
+        completedRows = rows;
+        // The completed rows won't be written to again, so they no longer
+        // need to be mapped
+        mapSink.releaseRows(rows * mapRowsPerTileRow);
+        logger.debug("Checkpoint: {} of {} rows of tiles exported", rows, tilesPerRow.length);
+    }
+
+    /**
+     * Get the number of leading rows which were completely exported by a
+     * previous export, according to its journal.
+     *
+     * @return The number of rows that can be skipped, or zero if there is no
+     * journal or it was written for a different world or different settings.
+     */
+    static int getResumableRows(File file, long settingsHash, long worldHash) {
+        if (! file.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION)) {
+                logger.warn("Unsupported journal format in {}; ignoring journal", file);
+                return 0;
+            }
+            if ((in.readLong() != settingsHash) || (in.readLong() != worldHash)) {
+                logger.info("World or settings changed since interrupted export; not resuming");
+                return 0;
+            }
+            return in.readInt();
+        } catch (IOException e) {
+            logger.warn("I/O error reading journal " + file + "; ignoring journal", e);
+            return 0;
+        }
+    }
+
+    private final File file;
+    private final long settingsHash, worldHash;
+    private final int tileY1;
+    private final int[] tilesPerRow;
+    private final StreamingMapSink mapSink;
+    private final int mapRowsPerTileRow;
+    private final AtomicIntegerArray tilesWritten;
+    private int completedRows;
+    private long lastCheckpointTime;
+
+    static final String FILE_NAME = "worldpainter-export.journal";
+    static final long CHECKPOINT_INTERVAL = 30; // s
+
+    private static final int MAGIC = 0x5750454A; // "WPEJ"
+    private static final int FORMAT_VERSION = 1;
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(CHECKPOINT_INTERVAL);
+    private static final Logger logger = LoggerFactory.getLogger(ExportJournal.class);
+}
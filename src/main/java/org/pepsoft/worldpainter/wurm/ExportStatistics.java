@@ -0,0 +1,193 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of an export, which are logged as a summary table at
+ * the end of the export and, if the JVM supports it, emitted as Java Flight
+ * Recorder events (see {@link JfrExportEvents}), so that exports can be
+ * profiled with JFR without an external agent.
+ *
+ * <p>There are two kinds of phases: the phases of the export as a whole,
+ * which are timed by wall clock time using {@link #start(Phase)}, and the
+ * phases of processing a tile, which are timed per tile by the tile exporters
+ * and reported through {@link #tileExported(int, int, long, long, long, int,
+ * int)}. Since the tiles are processed on multiple threads the latter are
+ * summed over all threads.
+ *
+ * <p>This class is thread-safe.
+ */
+final class ExportStatistics {
+    ExportStatistics() {
+        events = JfrExportEvents.create();
+    }
+
+    /**
+     * Start timing a phase of the export.
+     *
+     * @return A timer which must be stopped when the phase is complete.
+     */
+    PhaseTimer start(Phase phase) {
+        return new PhaseTimer(phase, (events != null) ? events.phaseStarted(phase) : null);
+    }
+
+    /**
+     * Record that a tile has been exported.
+     *
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param samplingNanos The time spent on {@link Phase#SAMPLING}.
+     * @param terrainNanos The time spent on {@link Phase#TERRAIN}.
+     * @param layersNanos The time spent on {@link Phase#LAYERS}.
+     * @param blocksSampled The number of WorldPainter blocks sampled.
+     * @param noiseEvaluations The number of times a noise field was evaluated.
+     */
+    void tileExported(int tileX, int tileY, long samplingNanos, long terrainNanos, long layersNanos, int blocksSampled, int noiseEvaluations) {
+        phaseNanos[Phase.SAMPLING.ordinal()].add(samplingNanos);
+        phaseNanos[Phase.TERRAIN.ordinal()].add(terrainNanos);
+        phaseNanos[Phase.LAYERS.ordinal()].add(layersNanos);
+        tiles.increment();
+        this.blocksSampled.add(blocksSampled);
+        this.noiseEvaluations.add(noiseEvaluations);
+        if (events != null) {
+            events.tileExported(tileX, tileY, samplingNanos, terrainNanos, layersNanos, blocksSampled, noiseEvaluations);
+        }
+    }
+
+    /**
+     * Add time spent on one of the per tile phases which is not reported
+     * through {@link #tileExported(int, int, long, long, long, int, int)}.
+     */
+    void add(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Record the number of tiles waiting in the write queue of the
+     * {@link TilePipeline} when a tile is added to it.
+     */
+    void tileQueued(int queueDepth) {
+        queuedTiles.increment();
+        this.queueDepth.add(queueDepth);
+        maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    /**
+     * Record that tiles have been written to the map sink. The bytes written
+     * are counted as the surface and rock layers of those tiles, at four
+     * bytes per tile each, so an incremental export only counts the tiles it
+     * rewrote, and the layers which the exporter does not write, such as the
+     * flags and resources, are not counted.
+     *
+     * @param count The number of Wurm Unlimited tiles written.
+     */
+    void tilesWritten(int count) {
+        bytesWritten.add((long) count * BYTES_PER_TILE);
+    }
+
+    long getTiles() {
+        return tiles.sum();
+    }
+
+    long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Log a summary table of the timings and counters, and emit the summary
+     * event.
+     */
+    void logSummary() {
+        final long tiles = this.tiles.sum(), tilesNanos = getPhaseNanos(Phase.TILES);
+        final double tilesPerSecond = (tilesNanos > 0) ? (tiles * 1000000000.0 / tilesNanos) : 0.0;
+        final StringBuilder sb = new StringBuilder("Export statistics:\n");
+        sb.append(String.format("  %-45s %12s%n", "Phase", "Time (s)"));
+        for (Phase phase: Phase.values()) {
+            if (phase == Phase.SAMPLING) {
+                sb.append(String.format("  %-45s%n", "Of which, summed over all threads:"));
+            }
+            sb.append(String.format("  %-45s %12.3f%n", phase.description, getPhaseNanos(phase) / 1000000000.0));
+        }
+        sb.append(String.format("  %-45s %12d%n", "Tiles exported", tiles));
+        sb.append(String.format("  %-45s %12.1f%n", "Tiles per second", tilesPerSecond));
+        sb.append(String.format("  %-45s %12d%n", "Blocks sampled", blocksSampled.sum()));
+        sb.append(String.format("  %-45s %12d%n", "Noise evaluations", noiseEvaluations.sum()));
+        final long queuedTiles = this.queuedTiles.sum();
+        if (queuedTiles > 0) {
+            sb.append(String.format("  %-45s %12.1f%n", "Average write queue depth", (double) queueDepth.sum() / queuedTiles));
+            sb.append(String.format("  %-45s %12d%n", "Maximum write queue depth", maxQueueDepth.get()));
+        }
+        sb.append(String.format("  %-45s %12d", "Bytes written", bytesWritten.sum()));
+        logger.info(sb.toString());
+        if (events != null) {
+            events.exportFinished(tiles, tilesPerSecond, blocksSampled.sum(), noiseEvaluations.sum(), bytesWritten.sum());
+        }
+    }
+
+    private final JfrExportEvents events;
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final LongAdder tiles = new LongAdder(), blocksSampled = new LongAdder(), noiseEvaluations = new LongAdder(), queuedTiles = new LongAdder(), queueDepth = new LongAdder(), bytesWritten = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * The bytes written per Wurm Unlimited tile: four each in the surface and
+     * rock layers.
+     */
+    private static final int BYTES_PER_TILE = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportStatistics.class);
+
+    enum Phase {
+        HASHING("Hashing tiles"),
+        BACKUP("Backing up existing map"),
+        TILES("Exporting tiles"),
+        SAVING("Saving map"),
+        SAMPLING("  Sampling heights, depths and materials"),
+        TERRAIN("  Generating terrain and flora"),
+        LAYERS("  Placing layers and trees"),
+        WRITING("  Writing tiles to map"),
+        GENERATORS_BLOCKED("  Generating threads waiting for a free buffer"),
+        WRITERS_IDLE("  Writing threads waiting for a tile");
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        final String description;
+    }
+
+    /**
+     * A running timer of a phase of the export.
+     */
+    final class PhaseTimer {
+        private PhaseTimer(Phase phase, Object event) {
+            this.phase = phase;
+            this.event = event;
+            start = System.nanoTime();
+        }
+
+        /**
+         * Stop the timer and add the elapsed time to the phase.
+         */
+        void stop() {
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+            if (event != null) {
+                events.phaseEnded(event);
+            }
+        }
+
+        private final Phase phase;
+        private final Object event;
+        private final long start;
+    }
+}
@@ -0,0 +1,242 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.util.FileUtils;
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.UnloadableWorldException;
+import org.pepsoft.worldpainter.World2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A command line entry point for exporting WorldPainter worlds to Wurm
+ * Unlimited maps without a user interface, for use in scripts and scheduled
+ * jobs. Usage:
+ *
+ * <pre>HeadlessExporter [options] &lt;world file&gt; &lt;maps directory&gt; [&lt;map name&gt;]</pre>
+ *
+ * <p>Options:
+ *
+ * <ul>
+ *     <li>{@code --minecraft}, {@code --wurmScaled}, {@code --wurmUnscaled}:
+ *     the scaling mode (default: {@code --minecraft})
+ *     <li>{@code --threads=<n>}: the number of threads to use (default: the
+ *     number of processors)
+ *     <li>{@code --incremental}: if the map already exists, only re-export
+ *     the tiles which have changed since the last export
+ *     <li>{@code --streaming}: write the map files directly instead of
+ *     keeping the entire map in memory
+ *     <li>{@code --config=<file>}: a properties file with settings; see
+ *     {@link WurmExportSettings#fromProperties(Properties)}
+ *     <li>{@code --set <key>=<value>}: override a single setting, e.g.
+ *     {@code --set tile.kelp.minimumDepth=5}
+ *     <li>{@code --report=<file>}: write a report of any warnings to the
+ *     specified file, in JSON format
+ * </ul>
+ *
+ * <p>The map name defaults to the name of the world. If the map already
+ * exists it is moved to a backup directory when the new map is complete, as
+ * when exporting from WorldPainter, unless it is updated incrementally. An
+ * export with {@code --streaming} which was interrupted is resumed by running
+ * it again for the same world with the same settings. With
+ * {@code --set pipeline.sink=checksum} no map is created, and a checksum of
+ * the exported tiles is logged and included in the report instead, for
+ * checking that exports are deterministic. The exit code is 0 on success, 1 if the export failed and 2
+ * if the arguments were invalid.
+ */
+public final class HeadlessExporter {
+    private HeadlessExporter() {
+        // Prevent instantiation
+    }
+
+    public static void main(String[] args) {
+        Properties properties = new Properties();
+        File worldFile = null, mapsDir = null, reportFile = null;
+        String mapName = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--minecraft")) {
+                    properties.setProperty(WurmExportSettings.SCALING_MODE, WurmUnlimitedExporter.ScalingMode.MINECRAFT.name());
+                } else if (arg.equals("--wurmScaled")) {
+                    properties.setProperty(WurmExportSettings.SCALING_MODE, WurmUnlimitedExporter.ScalingMode.WURM_SCALED.name());
+                } else if (arg.equals("--wurmUnscaled")) {
+                    properties.setProperty(WurmExportSettings.SCALING_MODE, WurmUnlimitedExporter.ScalingMode.WURM_UNSCALED.name());
+                } else if (arg.startsWith("--threads=")) {
+                    properties.setProperty(WurmExportSettings.THREADS, arg.substring(10));
+                } else if (arg.equals("--incremental")) {
+                    properties.setProperty(WurmExportSettings.INCREMENTAL, "true");
+                } else if (arg.equals("--streaming")) {
+                    properties.setProperty(WurmExportSettings.STREAMING, "true");
+                } else if (arg.startsWith("--config=")) {
+                    // Let settings on the command line override those from
+                    // the file, regardless of the order
+                    Properties fileProperties = new Properties();
+                    try (Reader in = new InputStreamReader(new FileInputStream(arg.substring(9)), StandardCharsets.UTF_8)) {
+                        fileProperties.load(in);
+                    }
+                    fileProperties.putAll(properties);
+                    properties = fileProperties;
+                } else if (arg.equals("--set") && (i < args.length - 1)) {
+                    String setting = args[++i];
+                    int p = setting.indexOf('=');
+                    if (p < 1) {
+                        throw new IllegalArgumentException("Invalid setting: " + setting);
+                    }
+                    properties.setProperty(setting.substring(0, p).trim(), setting.substring(p + 1).trim());
+                } else if (arg.startsWith("--report=")) {
+                    reportFile = new File(arg.substring(9));
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else if (worldFile == null) {
+                    worldFile = new File(arg);
+                } else if (mapsDir == null) {
+                    mapsDir = new File(arg);
+                } else if (mapName == null) {
+                    mapName = arg;
+                } else {
+                    throw new IllegalArgumentException("Too many arguments");
+                }
+            }
+            if (mapsDir == null) {
+                throw new IllegalArgumentException("Not enough arguments");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+        WurmExportSettings settings;
+        try {
+            settings = WurmExportSettings.fromProperties(properties);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        try {
+            System.exit(export(worldFile, mapsDir, mapName, settings, reportFile) ? 0 : 1);
+        } catch (Throwable t) {
+            logger.error(t.getClass().getSimpleName() + " while exporting " + worldFile, t);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Export a world file to a Wurm Unlimited map.
+     *
+     * @param worldFile The WorldPainter world to export.
+     * @param mapsDir The directory in which to create the map.
+     * @param mapName The name of the map, or {@code null} to use the name of
+     *                the world.
+     * @param settings The export settings to use.
+     * @param reportFile The file to which to write the warnings report, or
+     *                   {@code null} to not write one.
+     * @return {@code true} if the export succeeded.
+     */
+    static boolean export(File worldFile, File mapsDir, String mapName, WurmExportSettings settings, File reportFile) throws IOException, UnloadableWorldException {
+        World2 world = WorldFiles.load(worldFile);
+        if (mapName == null) {
+            mapName = world.getName();
+        }
+        if ((! mapsDir.isDirectory()) && (! mapsDir.mkdirs())) {
+            throw new IOException("Could not create " + mapsDir);
+        }
+        WurmUnlimitedExporter exporter = new WurmUnlimitedExporter(world, settings);
+        File mapDir = new File(mapsDir, FileUtils.sanitiseName(mapName));
+        File backupDir = mapDir.isDirectory() ? exporter.selectBackupDir(mapDir) : null;
+        try {
+            exporter.export(mapsDir, mapName, backupDir, null);
+        } catch (ProgressReceiver.OperationCancelled e) {
+            logger.error("Export of {} cancelled", worldFile);
+            return false;
+        }
+        if (reportFile != null) {
+            writeReport(reportFile, worldFile, mapDir, settings, exporter);
+        }
+        return true;
+    }
+
+    private static void writeReport(File reportFile, File worldFile, File mapDir, WurmExportSettings settings, WurmUnlimitedExporter exporter) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"world\": " + toJson(worldFile.getAbsolutePath()) + ",\n");
+            out.write("  \"map\": " + toJson(mapDir.getAbsolutePath()) + ",\n");
+            out.write("  \"exporterVersion\": " + toJson(Version.VERSION) + ",\n");
+            out.write("  \"scalingMode\": " + toJson(settings.getScalingMode().name()) + ",\n");
+            out.write("  \"threads\": " + settings.getThreads() + ",\n");
+            if (exporter.getChecksum() != null) {
+                out.write("  \"checksum\": " + toJson(String.format("%016x", exporter.getChecksum())) + ",\n");
+            }
+            out.write("  \"unsupportedMaterials\": " + toJson(exporter.getUnsupportedMaterials()) + ",\n");
+            out.write("  \"unsupportedLayers\": " + toJson(exporter.getUnsupportedLayers()) + "\n");
+            out.write("}\n");
+        }
+    }
+
+    private static String toJson(List<String> strings) {
+        StringBuilder sb = new StringBuilder("[");
+        for (String string: strings) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(toJson(string));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private static String toJson(String string) {
+        StringBuilder sb = new StringBuilder(string.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: HeadlessExporter [options] <world file> <maps directory> [<map name>]");
+        System.err.println("Options:");
+        System.err.println("  --minecraft | --wurmScaled | --wurmUnscaled  scaling mode (default: --minecraft)");
+        System.err.println("  --threads=<n>                                number of threads (default: number of processors)");
+        System.err.println("  --incremental                                only re-export changed tiles of an existing map");
+        System.err.println("  --streaming                                  write map files directly (uses less memory)");
+        System.err.println("  --config=<file>                              properties file with settings");
+        System.err.println("  --set <key>=<value>                          override a setting, e.g. tile.kelp.minimumDepth=5");
+        System.err.println("  --report=<file>                              write a JSON report of warnings to <file>");
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessExporter.class);
+}
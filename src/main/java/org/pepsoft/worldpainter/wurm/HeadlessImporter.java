@@ -0,0 +1,125 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.UnloadableWorldException;
+import org.pepsoft.worldpainter.World2;
+import org.pepsoft.worldpainter.util.WorldIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * A command line entry point for importing Wurm Unlimited maps into new
+ * WorldPainter worlds without a user interface, so that existing maps can be
+ * edited in WorldPainter. Usage:
+ *
+ * <pre>HeadlessImporter [options] &lt;map directory&gt; &lt;world file&gt;</pre>
+ *
+ * <p>Options:
+ *
+ * <ul>
+ *     <li>{@code --threads=<n>}: the number of threads to use (default: the
+ *     number of processors)
+ *     <li>{@code --terrains=<world file>}: an existing world from which to
+ *     take the custom terrains, so that tile types which are exported from
+ *     custom terrains with a particular name (see {@link TerrainRules}) can
+ *     be imported as those custom terrains
+ * </ul>
+ *
+ * <p>See {@link WurmMapImporter} for how the map is converted. The world file
+ * is overwritten if it exists. The exit code is 0 on success, 1 if the import
+ * failed and 2 if the arguments were invalid.
+ */
+public final class HeadlessImporter {
+    private HeadlessImporter() {
+        // Prevent instantiation
+    }
+
+    public static void main(String[] args) {
+        File mapDir = null, worldFile = null, terrainsFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (String arg: args) {
+                if (arg.startsWith("--threads=")) {
+                    try {
+                        threads = Integer.parseInt(arg.substring(10));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + arg.substring(10));
+                    }
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + threads);
+                    }
+                } else if (arg.startsWith("--terrains=")) {
+                    terrainsFile = new File(arg.substring(11));
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else if (mapDir == null) {
+                    mapDir = new File(arg);
+                } else if (worldFile == null) {
+                    worldFile = new File(arg);
+                } else {
+                    throw new IllegalArgumentException("Too many arguments");
+                }
+            }
+            if (worldFile == null) {
+                throw new IllegalArgumentException("Not enough arguments");
+            }
+            if (! WurmMapImporter.isMap(mapDir)) {
+                throw new IllegalArgumentException(mapDir + " does not contain a Wurm Unlimited map");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            System.exit(importMap(mapDir, worldFile, terrainsFile, threads) ? 0 : 1);
+        } catch (Throwable t) {
+            logger.error(t.getClass().getSimpleName() + " while importing " + mapDir, t);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Import a Wurm Unlimited map into a new WorldPainter world file.
+     *
+     * @param mapDir The directory containing the map.
+     * @param worldFile The world file to create.
+     * @param terrainsFile The world file from which to take the custom
+     *                     terrains, or {@code null} to not use any custom
+     *                     terrains.
+     * @param threads The number of threads to use.
+     * @return {@code true} if the import succeeded.
+     */
+    static boolean importMap(File mapDir, File worldFile, File terrainsFile, int threads) throws IOException, UnloadableWorldException {
+        if (terrainsFile != null) {
+            // Installs the custom terrains of the world
+            WorldFiles.load(terrainsFile);
+        }
+        WurmMapImporter importer = new WurmMapImporter(mapDir, threads);
+        World2 world;
+        try {
+            world = importer.doImport(null);
+        } catch (ProgressReceiver.OperationCancelled e) {
+            logger.error("Import of {} cancelled", mapDir);
+            return false;
+        }
+        logger.info("Saving world {}", worldFile);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(worldFile))) {
+            new WorldIO(world).save(out);
+        }
+        return true;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: HeadlessImporter [options] <map directory> <world file>");
+        System.err.println("Options:");
+        System.err.println("  --threads=<n>            number of threads (default: number of processors)");
+        System.err.println("  --terrains=<world file>  take the custom terrains from an existing world");
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessImporter.class);
+}
@@ -0,0 +1,94 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts rows of heights in WorldPainter blocks to Wurm Unlimited dirt and
+ * rock heights, in tenths of metres relative to the water level.
+ *
+ * <p>This class is the scalar implementation. If the JVM has the incubating
+ * Vector API (which means it was started with
+ * {@code --add-modules jdk.incubator.vector}) and the plugin was built with
+ * the "vector" profile, {@link #create()} returns a SIMD implementation
+ * instead, which is loaded reflectively so that this class can be loaded on
+ * any JVM. Both produce exactly the same heights.
+ */
+class HeightEncoder {
+    /**
+     * Encode a row of heights.
+     *
+     * @param cornerHeights The heights of the corners of the tiles, in
+     *                      blocks, already scaled vertically.
+     * @param cornerOffset The index in {@code cornerHeights} of the first
+     *                     height of the row.
+     * @param topLayerDepths The depths of the top layer, in blocks, already
+     *                       scaled vertically.
+     * @param offset The index in {@code topLayerDepths}, {@code dirtHeights}
+     *               and {@code rockHeights} of the first tile of the row.
+     * @param waterLevel The water level, in blocks, already scaled vertically.
+     * @param dirtHeights The array to store the dirt heights in.
+     * @param rockHeights The array to store the rock heights in.
+     * @param length The number of tiles in the row.
+     */
+    void encodeRow(final float[] cornerHeights, final int cornerOffset, final float[] topLayerDepths, final int offset, final float waterLevel, final short[] dirtHeights, final short[] rockHeights, final int length) {
+        for (int j = 0; j < length; j++) {
+            final float cornerHeight = cornerHeights[cornerOffset + j];
+            dirtHeights[offset + j] = (short) ((cornerHeight - waterLevel) * 10 + 0.5f);
+            rockHeights[offset + j] = (short) ((cornerHeight - topLayerDepths[offset + j] - waterLevel) * 10 + 0.5f);
+        }
+    }
+
+    /**
+     * Get the name of the implementation, for logging.
+     */
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Create the fastest available height encoder.
+     */
+    static HeightEncoder create() {
+        if (VECTOR_API_AVAILABLE) {
+            try {
+                return (HeightEncoder) Class.forName("org.pepsoft.worldpainter.wurm.VectorHeightEncoder").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.debug("Could not initialise vectorised height encoder; using scalar encoder", e);
+            }
+        }
+        return new HeightEncoder();
+    }
+
+    /**
+     * Create a height encoder of a particular type, as configured with
+     * {@code pipeline.heightEncoder}: {@code auto} for the fastest available
+     * one, or {@code scalar} for the scalar implementation.
+     *
+     * @throws IllegalArgumentException If the type is not recognised.
+     */
+    static HeightEncoder create(String type) {
+        switch (type) {
+            case "auto":
+                return create();
+            case "scalar":
+                return new HeightEncoder();
+            default:
+                throw new IllegalArgumentException("Invalid pipeline.heightEncoder: " + type);
+        }
+    }
+
+    private static final boolean VECTOR_API_AVAILABLE;
+    private static final Logger logger = LoggerFactory.getLogger(HeightEncoder.class);
+
+    static {
+        boolean available;
+        try {
+            Class.forName("jdk.incubator.vector.FloatVector");
+            available = true;
+        } catch (ClassNotFoundException e) {
+            available = false;
+        }
+        VECTOR_API_AVAILABLE = available;
+    }
+}
@@ -0,0 +1,51 @@
+package org.pepsoft.worldpainter.wurm;
+
+/**
+ * A {@link MapSink} which keeps the surface and rock layers in memory, without
+ * writing them anywhere, for benchmarks and tests. Initially all tiles are
+ * zero.
+ */
+final class InMemoryMapSink extends EncodedMapSink {
+    InMemoryMapSink(int powerOfTwo) {
+        this.powerOfTwo = powerOfTwo;
+        surface = new int[1 << (powerOfTwo * 2)];
+        rock = new int[1 << (powerOfTwo * 2)];
+    }
+
+    /**
+     * Get the encoded surface tile at a particular location.
+     */
+    int getEncodedSurfaceTile(int x, int y) {
+        return surface[x | (y << powerOfTwo)];
+    }
+
+    /**
+     * Get the encoded rock tile at a particular location.
+     */
+    int getEncodedRockTile(int x, int y) {
+        return rock[x | (y << powerOfTwo)];
+    }
+
+    @Override
+    void setEncodedSurfaceTile(int x, int y, int encodedTile) {
+        surface[x | (y << powerOfTwo)] = encodedTile;
+    }
+
+    @Override
+    void setEncodedRockTile(int x, int y, int encodedTile) {
+        rock[x | (y << powerOfTwo)] = encodedTile;
+    }
+
+    @Override
+    public void saveChanges() {
+        // Do nothing
+    }
+
+    @Override
+    public void close() {
+        // Do nothing
+    }
+
+    private final int powerOfTwo;
+    private final int[] surface, rock;
+}
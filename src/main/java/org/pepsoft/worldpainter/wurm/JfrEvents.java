@@ -0,0 +1,120 @@
+package org.pepsoft.worldpainter.wurm;
+
+import jdk.jfr.*;
+import org.pepsoft.worldpainter.wurm.ExportStatistics.Phase;
+
+/**
+ * The Java Flight Recorder events of an export. Only loaded, by
+ * {@link JfrExportEvents#create()}, if the JVM has the JFR API. The events
+ * are in the "WorldPainter/Wurm Unlimited Export" category.
+ */
+final class JfrEvents extends JfrExportEvents {
+    @Override
+    Object phaseStarted(Phase phase) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase.name();
+            event.begin();
+            return event;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    void phaseEnded(Object event) {
+        ((PhaseEvent) event).commit();
+    }
+
+    @Override
+    void tileExported(int tileX, int tileY, long samplingNanos, long terrainNanos, long layersNanos, int blocksSampled, int noiseEvaluations) {
+        TileEvent event = new TileEvent();
+        if (event.isEnabled()) {
+            event.tileX = tileX;
+            event.tileY = tileY;
+            event.samplingTime = samplingNanos;
+            event.terrainTime = terrainNanos;
+            event.layersTime = layersNanos;
+            event.blocksSampled = blocksSampled;
+            event.noiseEvaluations = noiseEvaluations;
+            event.commit();
+        }
+    }
+
+    @Override
+    void exportFinished(long tiles, double tilesPerSecond, long blocksSampled, long noiseEvaluations, long bytesWritten) {
+        SummaryEvent event = new SummaryEvent();
+        if (event.isEnabled()) {
+            event.tiles = tiles;
+            event.tilesPerSecond = tilesPerSecond;
+            event.blocksSampled = blocksSampled;
+            event.noiseEvaluations = noiseEvaluations;
+            event.bytesWritten = bytesWritten;
+            event.commit();
+        }
+    }
+
+    @Name("org.pepsoft.wurm.ExportPhase")
+    @Label("Export Phase")
+    @Description("A phase of an export to a Wurm Unlimited map")
+    @Category({"WorldPainter", "Wurm Unlimited Export"})
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("org.pepsoft.wurm.TileExported")
+    @Label("Tile Exported")
+    @Description("A WorldPainter tile exported to a Wurm Unlimited map")
+    @Category({"WorldPainter", "Wurm Unlimited Export"})
+    @StackTrace(false)
+    static final class TileEvent extends Event {
+        @Label("Tile X")
+        int tileX;
+
+        @Label("Tile Y")
+        int tileY;
+
+        @Label("Sampling Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long samplingTime;
+
+        @Label("Terrain Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long terrainTime;
+
+        @Label("Layers Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long layersTime;
+
+        @Label("Blocks Sampled")
+        int blocksSampled;
+
+        @Label("Noise Evaluations")
+        int noiseEvaluations;
+    }
+
+    @Name("org.pepsoft.wurm.ExportSummary")
+    @Label("Export Summary")
+    @Description("The totals of an export to a Wurm Unlimited map")
+    @Category({"WorldPainter", "Wurm Unlimited Export"})
+    @StackTrace(false)
+    static final class SummaryEvent extends Event {
+        @Label("Tiles")
+        long tiles;
+
+        @Label("Tiles per Second")
+        double tilesPerSecond;
+
+        @Label("Blocks Sampled")
+        long blocksSampled;
+
+        @Label("Noise Evaluations")
+        long noiseEvaluations;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+}
@@ -0,0 +1,58 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.wurm.ExportStatistics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits the Java Flight Recorder events of an export. This class does not
+ * refer to the JFR API itself, so that it can be loaded on JVMs which don't
+ * have it; the actual events are in {@link JfrEvents}, which is only loaded
+ * if the JFR API is present.
+ */
+abstract class JfrExportEvents {
+    /**
+     * Signal the start of a phase of the export.
+     *
+     * @return An object to pass to {@link #phaseEnded(Object)}.
+     */
+    abstract Object phaseStarted(Phase phase);
+
+    abstract void phaseEnded(Object event);
+
+    abstract void tileExported(int tileX, int tileY, long samplingNanos, long terrainNanos, long layersNanos, int blocksSampled, int noiseEvaluations);
+
+    abstract void exportFinished(long tiles, double tilesPerSecond, long blocksSampled, long noiseEvaluations, long bytesWritten);
+
+    /**
+     * Create an event emitter, if the JVM supports Java Flight Recorder.
+     *
+     * @return An event emitter, or {@code null} if the JVM does not support
+     * Java Flight Recorder.
+     */
+    static JfrExportEvents create() {
+        if (! AVAILABLE) {
+            return null;
+        }
+        try {
+            return (JfrExportEvents) Class.forName("org.pepsoft.worldpainter.wurm.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.debug("Could not initialise Java Flight Recorder events", e);
+            return null;
+        }
+    }
+
+    private static final boolean AVAILABLE;
+    private static final Logger logger = LoggerFactory.getLogger(JfrExportEvents.class);
+
+    static {
+        boolean available;
+        try {
+            Class.forName("jdk.jfr.Event");
+            available = true;
+        } catch (ClassNotFoundException e) {
+            available = false;
+        }
+        AVAILABLE = available;
+    }
+}
@@ -0,0 +1,56 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.MapData;
+import com.wurmonline.wurmapi.api.WurmAPI;
+
+/**
+ * A {@link MapSink} which writes to a map opened or created through the Wurm
+ * API. The entire map is held in memory until {@link #saveChanges()} is
+ * invoked.
+ */
+final class MapDataSink implements MapSink {
+    MapDataSink(WurmAPI wurmAPI) {
+        this.wurmAPI = wurmAPI;
+        mapData = wurmAPI.getMapData();
+    }
+
+    /**
+     * Set each tile with the individual operations of the map, row by row.
+     */
+    @Override
+    public void setTiles(TileBuffer tiles) {
+        final int originX = tiles.getX(), originY = tiles.getY(), size = tiles.getSize(), stride = tiles.getStride();
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                final int x = originX + dx, y = originY + dy, i = dx * stride + dy;
+                mapData.setSurfaceTile(x, y, Tiles.getTile(tiles.getSurfaceTypeId(i)), tiles.getHeight(i));
+                mapData.setRockHeight(x, y, tiles.getRockHeight(i));
+                switch (tiles.getFloraKind(i)) {
+                    case TileBuffer.FLORA_GRASS:
+                        mapData.setGrass(x, y, tiles.getGrowthStage(i), tiles.getFlowerType(i));
+                        break;
+                    case TileBuffer.FLORA_TREE:
+                        mapData.setTree(x, y, tiles.getTreeType(i), tiles.getAge(i), tiles.getGrassGrowthStage(i));
+                        break;
+                    case TileBuffer.FLORA_BUSH:
+                        mapData.setBush(x, y, tiles.getBushType(i), tiles.getAge(i), tiles.getGrassGrowthStage(i));
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void saveChanges() {
+        mapData.saveChanges();
+    }
+
+    @Override
+    public void close() {
+        wurmAPI.close();
+    }
+
+    private final WurmAPI wurmAPI;
+    private final MapData mapData;
+}
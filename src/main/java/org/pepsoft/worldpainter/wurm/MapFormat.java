@@ -0,0 +1,234 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.wurmapi.api.MapData;
+import com.wurmonline.wurmapi.api.WurmAPI;
+import org.pepsoft.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.wurmonline.mesh.Tiles.Tile.TILE_DIRT;
+import static com.wurmonline.mesh.Tiles.Tile.TILE_SAND;
+
+/**
+ * The layout of the files of a Wurm Unlimited map, as needed by the
+ * {@link StreamingMapSink} to write them directly.
+ *
+ * <p>Rather than hardcoding the file format, it is derived from two small
+ * template maps of different sizes created through the Wurm API, so that it
+ * stays in step with the API. From those the header, the number of bytes per
+ * tile, the position of the map size in the header and the initial contents
+ * of every layer file are worked out, and a few tiles set to known values are
+ * used to determine the byte order and the order of the tiles. If the
+ * templates don't have the expected shape, {@link #get()} throws an
+ * {@link IOException} and the caller should fall back to the Wurm API.
+ */
+final class MapFormat {
+    private MapFormat(ByteOrder byteOrder, List<LayerFormat> layers) {
+        this.byteOrder = byteOrder;
+        this.layers = Collections.unmodifiableList(layers);
+    }
+
+    ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    List<LayerFormat> getLayers() {
+        return layers;
+    }
+
+    LayerFormat getLayer(String fileName) {
+        for (LayerFormat layer: layers) {
+            if (layer.fileName.equals(fileName)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the map format, deriving it from template maps the first time.
+     *
+     * @throws IOException If the template maps could not be created or did
+     * not have the expected shape.
+     */
+    static synchronized MapFormat get() throws IOException {
+        if (instance == null) {
+            instance = derive();
+        }
+        return instance;
+    }
+
+    private static MapFormat derive() throws IOException {
+        File tmpDir = Files.createTempDirectory("wurmtemplate").toFile();
+        try {
+            File smallDir = new File(tmpDir, "small"), largeDir = new File(tmpDir, "large");
+            createTemplate(smallDir, SMALL_POWER_OF_TWO);
+            createTemplate(largeDir, SMALL_POWER_OF_TWO + 1);
+            File[] files = smallDir.listFiles();
+            if ((files == null) || (files.length == 0)) {
+                throw new IOException("Template map contains no files");
+            }
+            final long smallCells = 1L << (SMALL_POWER_OF_TWO * 2), largeCells = smallCells * 4;
+            ByteOrder byteOrder = null;
+            List<LayerFormat> layers = new ArrayList<>(files.length);
+            for (File smallFile: files) {
+                File largeFile = new File(largeDir, smallFile.getName());
+                if (! largeFile.isFile()) {
+                    throw new IOException("Template maps of different sizes contain different files");
+                }
+                long smallLength = smallFile.length(), largeLength = largeFile.length();
+                if (smallLength == largeLength) {
+                    // Not a layer file; include it as is if it does not
+                    // depend on the map size
+                    byte[] contents = Files.readAllBytes(smallFile.toPath());
+                    if (! Arrays.equals(contents, Files.readAllBytes(largeFile.toPath()))) {
+                        throw new IOException("Unsupported template file " + smallFile.getName());
+                    }
+                    layers.add(new LayerFormat(smallFile.getName(), contents, new int[0], 0, new byte[0]));
+                    continue;
+                }
+                if (((largeLength - smallLength) % (largeCells - smallCells)) != 0) {
+                    throw new IOException("Unexpected size of template layer file " + smallFile.getName());
+                }
+                final int bytesPerCell = (int) ((largeLength - smallLength) / (largeCells - smallCells));
+                final int headerLength = (int) (smallLength - bytesPerCell * smallCells);
+                if ((bytesPerCell < 1) || (headerLength < 0)) {
+                    throw new IOException("Unexpected size of template layer file " + smallFile.getName());
+                }
+                byte[] small = Files.readAllBytes(smallFile.toPath()), large = Files.readAllBytes(largeFile.toPath());
+
+                // Find the position(s) of the map size in the header
+                List<Integer> sizeOffsets = new ArrayList<>();
+                for (int i = 0; i < headerLength; i++) {
+                    if (small[i] != large[i]) {
+                        if ((small[i] != SMALL_POWER_OF_TWO) || (large[i] != SMALL_POWER_OF_TWO + 1)) {
+                            throw new IOException("Unsupported header in template layer file " + smallFile.getName());
+                        }
+                        sizeOffsets.add(i);
+                    }
+                }
+
+                // The probe tiles are only set on the top layer; use them to
+                // determine the byte order
+                boolean probed = false;
+                if (smallFile.getName().equals(TOP_LAYER) && (bytesPerCell == 4)) {
+                    byteOrder = detectByteOrder(small, headerLength);
+                    probed = true;
+                }
+
+                // Check that the layer is otherwise uniform, and remember the
+                // value
+                byte[] defaultCell = Arrays.copyOfRange(small, headerLength, headerLength + bytesPerCell);
+                for (long cell = 0; cell < smallCells; cell++) {
+                    if (probed && ((cell == 1) || (cell == (1 << SMALL_POWER_OF_TWO)))) {
+                        continue;
+                    }
+                    int offset = (int) (headerLength + cell * bytesPerCell);
+                    for (int i = 0; i < bytesPerCell; i++) {
+                        if (small[offset + i] != defaultCell[i]) {
+                            throw new IOException("Template layer file " + smallFile.getName() + " is not uniform");
+                        }
+                    }
+                }
+                layers.add(new LayerFormat(smallFile.getName(), Arrays.copyOf(small, headerLength), sizeOffsets.stream().mapToInt(Integer::intValue).toArray(), bytesPerCell, defaultCell));
+            }
+            if (byteOrder == null) {
+                throw new IOException("Template map has no " + TOP_LAYER + " with four bytes per tile");
+            }
+            MapFormat format = new MapFormat(byteOrder, layers);
+            LayerFormat rockLayer = format.getLayer(ROCK_LAYER);
+            if ((rockLayer == null) || (rockLayer.bytesPerCell != 4)) {
+                throw new IOException("Template map has no " + ROCK_LAYER + " with four bytes per tile");
+            }
+            logger.debug("Derived Wurm Unlimited map format from templates: {} byte order, files {}", byteOrder, layers);
+            return format;
+        } finally {
+            FileUtils.deleteDir(tmpDir);
+        }
+    }
+
+    private static void createTemplate(File dir, int powerOfTwo) throws IOException {
+        WurmAPI wurmAPI = WurmAPI.create(dir.getAbsolutePath(), powerOfTwo);
+        try {
+            MapData mapData = wurmAPI.getMapData();
+            mapData.setSurfaceTile(1, 0, TILE_DIRT, PROBE_HEIGHT_1);
+            mapData.setSurfaceTile(0, 1, TILE_SAND, PROBE_HEIGHT_2);
+            mapData.saveChanges();
+        } finally {
+            wurmAPI.close();
+        }
+    }
+
+    /**
+     * Determine the byte order of the tiles from the probe tiles at (1, 0) and
+     * (0, 1), which also confirms that the tiles are stored row by row.
+     */
+    private static ByteOrder detectByteOrder(byte[] data, int headerLength) throws IOException {
+        final int probe1 = Tiles.encode(PROBE_HEIGHT_1, TILE_DIRT.id, (byte) 0), probe2 = Tiles.encode(PROBE_HEIGHT_2, TILE_SAND.id, (byte) 0);
+        for (ByteOrder byteOrder: new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(byteOrder);
+            if ((buffer.getInt(headerLength + 4) == probe1) && (buffer.getInt(headerLength + (4 << SMALL_POWER_OF_TWO)) == probe2)) {
+                return byteOrder;
+            }
+        }
+        throw new IOException("Could not determine tile encoding of template map");
+    }
+
+    private final ByteOrder byteOrder;
+    private final List<LayerFormat> layers;
+
+    static final String TOP_LAYER = "top_layer.map", ROCK_LAYER = "rock_layer.map";
+
+    private static final int SMALL_POWER_OF_TWO = 10;
+    private static final short PROBE_HEIGHT_1 = 0x1234, PROBE_HEIGHT_2 = 0x2345;
+    private static final Logger logger = LoggerFactory.getLogger(MapFormat.class);
+
+    private static MapFormat instance;
+
+    /**
+     * The format of one layer file of a map. Files which don't contain tiles
+     * are represented as a header without any tiles.
+     */
+    static final class LayerFormat {
+        LayerFormat(String fileName, byte[] header, int[] sizeOffsets, int bytesPerCell, byte[] defaultCell) {
+            this.fileName = fileName;
+            this.header = header;
+            this.sizeOffsets = sizeOffsets;
+            this.bytesPerCell = bytesPerCell;
+            this.defaultCell = defaultCell;
+        }
+
+        /**
+         * Get the header for a map of a particular size.
+         */
+        byte[] getHeader(int powerOfTwo) {
+            byte[] header = this.header.clone();
+            for (int offset: sizeOffsets) {
+                header[offset] = (byte) powerOfTwo;
+            }
+            return header;
+        }
+
+        @Override
+        public String toString() {
+            return fileName + " (header: " + header.length + " bytes; " + bytesPerCell + " bytes per tile)";
+        }
+
+        final String fileName;
+        final byte[] header;
+        final int[] sizeOffsets;
+        final int bytesPerCell;
+        final byte[] defaultCell;
+    }
+}
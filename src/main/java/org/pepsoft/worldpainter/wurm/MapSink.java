@@ -0,0 +1,30 @@
+package org.pepsoft.worldpainter.wurm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for the tiles of a Wurm Unlimited map being exported. Tiles
+ * are only ever written in bulk, from the staging buffer of one WorldPainter
+ * tile, so sinks never have to read back or modify tiles which have already
+ * been written.
+ *
+ * <p>Implementations must allow different threads to write different tiles
+ * concurrently.
+ */
+interface MapSink extends Closeable {
+    /**
+     * Write all tiles from a staging buffer.
+     *
+     * <p>The tiles should be written row by row, since the map stores its
+     * layers row by row; writing them column by column, in the order of the
+     * staging buffer, would touch a different map row, and for large maps a
+     * different memory page, for every tile.
+     */
+    void setTiles(TileBuffer tiles);
+
+    /**
+     * Make sure all changes have been written to disk.
+     */
+    void saveChanges() throws IOException;
+}
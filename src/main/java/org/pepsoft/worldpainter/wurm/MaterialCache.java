@@ -0,0 +1,84 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.Terrain;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.pepsoft.worldpainter.Terrain.*;
+
+/**
+ * A cache of the top layer materials of terrain types, to avoid going through
+ * the full material machinery of {@link Terrain#getMaterial(long, int, int,
+ * float, int)} for every block.
+ *
+ * <p>Only the terrain types in {@link #SINGLE_MATERIAL_TERRAINS}, which
+ * consist of one material everywhere, are cached. Their material is looked up
+ * once per height, the first time the terrain type is encountered at that
+ * height. All other terrain types, including the custom terrains and the
+ * built-in mixed terrains, are passed through to the terrain type for every
+ * block, so that the cache never changes the exported map.
+ *
+ * <p>This class is thread-safe. Looked up materials are written to plain
+ * arrays, so a thread may occasionally not see another thread's result and
+ * look up the same terrain type and height again, but since the outcome is
+ * deterministic that is harmless.
+ */
+final class MaterialCache {
+    MaterialCache(long seed, int maxHeight) {
+        this.seed = seed;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Get the block ID of the top layer material of a terrain type at a
+     * particular location. Equivalent to
+     * {@code terrain.getMaterial(seed, x, y, height, intHeight).blockType}.
+     */
+    int getBlockType(final Terrain terrain, final int x, final int y, final float height, final int intHeight) {
+        if ((intHeight < 0) || (intHeight >= maxHeight) || (! CACHEABLE[terrain.ordinal()])) {
+            return terrain.getMaterial(seed, x, y, height, intHeight).blockType;
+        }
+        int[] blockTypes = blockTypesByTerrain.get(terrain.ordinal());
+        if (blockTypes == null) {
+            blockTypes = new int[maxHeight];
+            Arrays.fill(blockTypes, UNKNOWN);
+            if (! blockTypesByTerrain.compareAndSet(terrain.ordinal(), null, blockTypes)) {
+                blockTypes = blockTypesByTerrain.get(terrain.ordinal());
+            }
+        }
+        int blockType = blockTypes[intHeight];
+        if (blockType == UNKNOWN) {
+            blockType = terrain.getMaterial(seed, x, y, height, intHeight).blockType;
+            blockTypes[intHeight] = blockType;
+        }
+        return blockType;
+    }
+
+    private final long seed;
+    private final int maxHeight;
+    private final AtomicReferenceArray<int[]> blockTypesByTerrain = new AtomicReferenceArray<>(Terrain.values().length);
+
+    /**
+     * The built-in terrain types which have the same top layer material
+     * regardless of the location. Mixed terrains (such as rock, stone mix,
+     * resources, mesa, the deserts and beaches) and snow, which depend on
+     * noise or the surroundings, must not be added.
+     */
+    private static final Set<Terrain> SINGLE_MATERIAL_TERRAINS = EnumSet.of(
+            GRASS, BARE_GRASS, GRASS_PATH, DIRT, PERMADIRT, PODZOL, MYCELIUM,
+            SAND, RED_SAND, SANDSTONE, RED_SANDSTONE, GRAVEL, CLAY, HARDENED_CLAY,
+            STONE, GRANITE, DIORITE, ANDESITE, COBBLESTONE, MOSSY_COBBLESTONE,
+            OBSIDIAN, BEDROCK, NETHERRACK, SOUL_SAND, END_STONE, WATER, LAVA);
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final boolean[] CACHEABLE = new boolean[Terrain.values().length];
+
+    static {
+        for (Terrain terrain: SINGLE_MATERIAL_TERRAINS) {
+            CACHEABLE[terrain.ordinal()] = true;
+        }
+    }
+}
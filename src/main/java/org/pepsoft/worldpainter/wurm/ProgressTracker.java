@@ -0,0 +1,185 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.wurm.ExportStatistics.Phase;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the progress of all phases of an export into a single overall
+ * progress, and reports it, together with the current phase and an estimate
+ * of the remaining time, to a {@link ProgressReceiver} at a bounded rate.
+ *
+ * <p>Worker threads only add completed units of work through
+ * {@link #worked(long)}, which is cheap and never calls the progress receiver
+ * or checks for cancellation. The thread coordinating the export reports the
+ * progress by calling {@link #update()} or {@link #await(Future)}, which is
+ * also where a cancellation by the user surfaces as a
+ * {@link ProgressReceiver.OperationCancelled}.
+ *
+ * <p>Every phase has a relative cost per unit of work, so that the phases can
+ * be combined into one progress bar. The costs are rough estimates, based on
+ * typical timings, relative to exporting one tile.
+ */
+final class ProgressTracker {
+    /**
+     * Create a new progress tracker.
+     *
+     * @param progressReceiver The progress receiver to report to. May be
+     *                         {@code null}, in which case progress is tracked
+     *                         but not reported.
+     */
+    ProgressTracker(ProgressReceiver progressReceiver) {
+        this.progressReceiver = progressReceiver;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Set the expected number of units of work of a phase. May be invoked
+     * again to revise the amount of work of a phase which has not yet
+     * started, or to skip it by setting it to zero.
+     */
+    void plan(Phase phase, long units) {
+        plannedUnits.put(phase, units);
+    }
+
+    /**
+     * Start a phase, completing the previous one, and report the progress
+     * immediately.
+     */
+    void start(Phase phase) throws ProgressReceiver.OperationCancelled {
+        if (currentPhase != null) {
+            completedCost += getCost(currentPhase, plannedUnits.getOrDefault(currentPhase, 0L));
+            plannedUnits.put(currentPhase, 0L);
+        }
+        currentPhase = phase;
+        unitsDone.reset();
+        report();
+    }
+
+    /**
+     * Record that units of work of the current phase have been completed. May
+     * be invoked from any thread.
+     */
+    void worked(long units) {
+        unitsDone.add(units);
+    }
+
+    /**
+     * Report the progress if the last report was long enough ago. Must only be
+     * invoked from the thread which started the current phase.
+     *
+     * @throws ProgressReceiver.OperationCancelled If the user cancelled the
+     * export.
+     */
+    void update() throws ProgressReceiver.OperationCancelled {
+        if ((System.nanoTime() - lastReportTime) >= REPORT_INTERVAL_NANOS) {
+            report();
+        }
+    }
+
+    /**
+     * Wait for a task to complete, reporting the progress at regular intervals
+     * in the mean time.
+     *
+     * @throws ProgressReceiver.OperationCancelled If the user cancelled the
+     * export. The task is not cancelled; that is up to the caller.
+     */
+    <T> T await(Future<T> future) throws ProgressReceiver.OperationCancelled, ExecutionException, InterruptedException {
+        while (true) {
+            try {
+                return future.get(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                update();
+            }
+        }
+    }
+
+    /**
+     * Complete the last phase and report the export as finished.
+     */
+    void finish() throws ProgressReceiver.OperationCancelled {
+        currentPhase = null;
+        if (progressReceiver != null) {
+            progressReceiver.setProgress(1.0f);
+        }
+    }
+
+    private void report() throws ProgressReceiver.OperationCancelled {
+        lastReportTime = System.nanoTime();
+        if (progressReceiver == null) {
+            return;
+        }
+        long phaseUnits = plannedUnits.getOrDefault(currentPhase, 0L), phaseUnitsDone = Math.min(unitsDone.sum(), phaseUnits);
+        double totalCost = completedCost;
+        for (Map.Entry<Phase, Long> entry: plannedUnits.entrySet()) {
+            totalCost += getCost(entry.getKey(), entry.getValue());
+        }
+        double doneCost = completedCost + getCost(currentPhase, phaseUnitsDone);
+        float progress = (totalCost > 0) ? (float) Math.min(doneCost / totalCost, 1.0) : 0.0f;
+
+        StringBuilder message = new StringBuilder(currentPhase.description.trim());
+        if (phaseUnitsDone > 0) {
+            message.append(" (").append(phaseUnitsDone).append(" of ").append(phaseUnits).append(')');
+        }
+        long elapsed = lastReportTime - startTime;
+        if ((elapsed >= ETA_DELAY_NANOS) && (doneCost > 0)) {
+            long remainingSeconds = (long) ((totalCost - doneCost) * elapsed / doneCost / 1000000000L);
+            message.append("; ").append(formatDuration(remainingSeconds)).append(" remaining");
+        }
+        String messageStr = message.toString();
+        if (! messageStr.equals(lastMessage)) {
+            progressReceiver.setMessage(messageStr);
+            lastMessage = messageStr;
+        }
+        progressReceiver.setProgress(progress);
+    }
+
+    /**
+     * Format a duration in a human readable way, rounded to whole minutes.
+     */
+    static String formatDuration(long seconds) {
+        if (seconds < 60) {
+            return "less than a minute";
+        }
+        final long minutes = (seconds + 30) / 60;
+        if (minutes < 60) {
+            return "about " + minutes + ((minutes == 1) ? " minute" : " minutes");
+        } else {
+            return String.format("about %d:%02d hours", minutes / 60, minutes % 60);
+        }
+    }
+
+    private static double getCost(Phase phase, long units) {
+        switch (phase) {
+            case HASHING:
+                return units * 0.02;
+            case TILES:
+                return units;
+            case SAVING:
+                return units * 0.05;
+            default:
+                return 0;
+        }
+    }
+
+    private final ProgressReceiver progressReceiver;
+    private final Map<Phase, Long> plannedUnits = new EnumMap<>(Phase.class);
+    private final LongAdder unitsDone = new LongAdder();
+    private final long startTime;
+    private Phase currentPhase;
+    private double completedCost;
+    private long lastReportTime;
+    private String lastMessage;
+
+    static final long REPORT_INTERVAL = 100; // ms
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL);
+    private static final long ETA_DELAY_NANOS = TimeUnit.SECONDS.toNanos(3);
+}
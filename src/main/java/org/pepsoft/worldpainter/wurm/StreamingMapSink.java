@@ -0,0 +1,264 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.wurm.MapFormat.LayerFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+
+/**
+ * A {@link MapSink} which writes the surface and rock layer files of a Wurm
+ * Unlimited map directly, through memory mapped stripes of rows, instead of
+ * holding the entire map on the heap like the Wurm API does. The operating
+ * system writes the mapped stripes back to disk in the background while the
+ * export is running, so there is no large write at the end either.
+ *
+ * <p>When the sink is created all files of the map are written with their
+ * initial contents, as derived by {@link MapFormat} from template maps. The
+ * stripes are mapped on demand, and released by the {@link ExportJournal} at
+ * each checkpoint once all rows in them are complete (see
+ * {@link #releaseRows(int)}). When the tiles are exported row by row only the
+ * stripes of the rows being exported are mapped; in the other orders more
+ * stripes are mapped at a time, since rows take longer to complete.
+ */
+final class StreamingMapSink extends EncodedMapSink {
+    /**
+     * Create a new streaming map sink.
+     *
+     * @param dir The directory of the map.
+     * @param powerOfTwo The size of the map as a power of two.
+     * @param format The format of the map files.
+     * @param resume Whether the files of the map already exist, partially
+     *               written by an interrupted export (see
+     *               {@link ExportJournal}), and should be written to as they
+     *               are, rather than being created with their initial
+     *               contents.
+     */
+    StreamingMapSink(File dir, int powerOfTwo, MapFormat format, boolean resume) throws IOException {
+        if ((! dir.isDirectory()) && (! dir.mkdirs())) {
+            throw new IOException("Could not create " + dir);
+        }
+        this.powerOfTwo = powerOfTwo;
+        this.format = format;
+        if (! resume) {
+            for (LayerFormat layer: format.getLayers()) {
+                writeInitialContents(new File(dir, layer.fileName), layer, powerOfTwo);
+            }
+        }
+        stripeRows = Math.max(Math.min(STRIPE_SIZE >> (powerOfTwo + 2), 1 << powerOfTwo), 1);
+        final int stripeCount = (1 << powerOfTwo) / stripeRows;
+        LayerFormat topLayer = format.getLayer(MapFormat.TOP_LAYER), rockLayer = format.getLayer(MapFormat.ROCK_LAYER);
+        top = new MappedLayer(new File(dir, topLayer.fileName), topLayer.header.length, stripeCount);
+        rock = new MappedLayer(new File(dir, rockLayer.fileName), rockLayer.header.length, stripeCount);
+    }
+
+    @Override
+    void setEncodedSurfaceTile(int x, int y, int encodedTile) {
+        top.put(x, y, encodedTile);
+    }
+
+    @Override
+    void setEncodedRockTile(int x, int y, int encodedTile) {
+        rock.put(x, y, encodedTile);
+    }
+
+    @Override
+    public void saveChanges() {
+        top.force();
+        rock.force();
+    }
+
+    /**
+     * Write the stripes which lie entirely within the first rows of the map
+     * to disk and unmap them, so that they no longer take up address space
+     * and the files can be moved or deleted (which is not possible on Windows
+     * while they are mapped). No thread may access those rows while this
+     * method is running; they are mapped again if they are accessed
+     * afterwards.
+     *
+     * @param rows The number of leading rows of the map to release.
+     */
+    void releaseRows(int rows) {
+        top.release(rows / stripeRows);
+        rock.release(rows / stripeRows);
+    }
+
+    /**
+     * Close the map files. Stripes which are still mapped are not unmapped
+     * until they are garbage collected, since other threads could still be
+     * accessing them if the export failed; use {@link #releaseRows(int)}
+     * first to unmap them.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            top.close();
+        } finally {
+            rock.close();
+        }
+    }
+
+    /**
+     * Write a file of the map with its header and every tile set to its
+     * initial value.
+     */
+    private static void writeInitialContents(File file, LayerFormat layer, int powerOfTwo) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), WRITE_BUFFER_SIZE)) {
+            out.write(layer.getHeader(powerOfTwo));
+            if (layer.bytesPerCell > 0) {
+                final int cellsPerBuffer = WRITE_BUFFER_SIZE / layer.bytesPerCell;
+                byte[] buffer = new byte[cellsPerBuffer * layer.bytesPerCell];
+                for (int i = 0; i < cellsPerBuffer; i++) {
+                    System.arraycopy(layer.defaultCell, 0, buffer, i * layer.bytesPerCell, layer.bytesPerCell);
+                }
+                long cellsToWrite = 1L << (powerOfTwo * 2);
+                while (cellsToWrite > 0) {
+                    int cells = (int) Math.min(cellsToWrite, cellsPerBuffer);
+                    out.write(buffer, 0, cells * layer.bytesPerCell);
+                    cellsToWrite -= cells;
+                }
+            }
+        }
+    }
+
+    private final int powerOfTwo, stripeRows;
+    private final MapFormat format;
+    private final MappedLayer top, rock;
+
+    /**
+     * Unmap a buffer immediately rather than when it is garbage collected, if
+     * the JVM supports it. The buffer must not be accessed afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER != null) {
+            try {
+                UNMAPPER.invokeExact((ByteBuffer) buffer);
+            } catch (Throwable t) {
+                logger.debug("Could not unmap stripe; it will be unmapped when it is garbage collected", t);
+            }
+        }
+    }
+
+    /**
+     * Find the non-public method of the JVM to unmap a buffer: the
+     * {@code invokeCleaner()} method of {@code sun.misc.Unsafe} on Java 9
+     * and later, or the cleaner of the buffer on Java 8.
+     *
+     * @return A method handle taking the buffer to unmap, or {@code null} if
+     * buffers can't be unmapped on this JVM.
+     */
+    private static MethodHandle findUnmapper() {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final MethodHandle invokeCleaner = lookup.findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class));
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return invokeCleaner.bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not Java 9 or later; try the Java 8 way
+        }
+        try {
+            final Class<?> directBufferClass = Class.forName("sun.nio.ch.DirectBuffer"), cleanerClass = Class.forName("sun.misc.Cleaner");
+            final MethodHandle cleaner = lookup.findVirtual(directBufferClass, "cleaner", MethodType.methodType(cleanerClass));
+            final MethodHandle clean = lookup.findVirtual(cleanerClass, "clean", MethodType.methodType(void.class));
+            return MethodHandles.filterReturnValue(cleaner, clean).asType(MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Unmapping buffers not supported on this JVM; stripes will be unmapped when they are garbage collected", e);
+            return null;
+        }
+    }
+
+    private static final int STRIPE_SIZE = 32 * 1024 * 1024; // bytes
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024; // bytes
+    private static final Logger logger = LoggerFactory.getLogger(StreamingMapSink.class);
+    private static final MethodHandle UNMAPPER = findUnmapper();
+
+    /**
+     * A layer file with four bytes per tile, mapped into memory one stripe of
+     * rows at a time.
+     */
+    private final class MappedLayer implements Closeable {
+        MappedLayer(File file, int headerLength, int stripeCount) throws IOException {
+            this.headerLength = headerLength;
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            stripes = new AtomicReferenceArray<>(stripeCount);
+        }
+
+        void put(int x, int y, int value) {
+            getStripe(y).putInt(offsetInStripe(x, y), value);
+        }
+
+        void force() {
+            for (int i = 0; i < stripes.length(); i++) {
+                MappedByteBuffer stripe = stripes.get(i);
+                if (stripe != null) {
+                    stripe.force();
+                }
+            }
+        }
+
+        /**
+         * Write the first stripes to disk and unmap them.
+         *
+         * @param count The number of leading stripes to release.
+         */
+        void release(int count) {
+            for (int i = 0; i < count; i++) {
+                final MappedByteBuffer stripe = stripes.getAndSet(i, null);
+                if (stripe != null) {
+                    stripe.force();
+                    unmap(stripe);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int i = 0; i < stripes.length(); i++) {
+                stripes.set(i, null);
+            }
+            randomAccessFile.close();
+        }
+
+        private int offsetInStripe(int x, int y) {
+            return (((y % stripeRows) << powerOfTwo) | x) << 2;
+        }
+
+        private MappedByteBuffer getStripe(int y) {
+            final int index = y / stripeRows;
+            MappedByteBuffer stripe = stripes.get(index);
+            if (stripe == null) {
+                synchronized (this) {
+                    stripe = stripes.get(index);
+                    if (stripe == null) {
+                        try {
+                            stripe = channel.map(READ_WRITE, headerLength + ((long) index * stripeRows << (powerOfTwo + 2)), (long) stripeRows << (powerOfTwo + 2));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("I/O error mapping stripe " + index + " of map layer", e);
+                        }
+                        stripe.order(format.getByteOrder());
+                        stripes.set(index, stripe);
+                    }
+                }
+            }
+            return stripe;
+        }
+
+        private final int headerLength;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final AtomicReferenceArray<MappedByteBuffer> stripes;
+    }
+}
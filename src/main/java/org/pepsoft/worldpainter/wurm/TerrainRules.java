@@ -0,0 +1,225 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.Tiles;
+import org.pepsoft.worldpainter.Terrain;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.wurmonline.mesh.Tiles.Tile.*;
+
+/**
+ * A table of how each WorldPainter terrain type is converted to a Wurm
+ * Unlimited tile type, compiled once from the terrain types and the names of
+ * the custom terrains, so that converting a tile is a lookup by terrain
+ * ordinal rather than a switch with string comparisons.
+ *
+ * <p>Custom terrains are mapped to a fixed tile type if their name is one of
+ * the names in {@link #CUSTOM_TERRAIN_NAMES} (case insensitive), for instance
+ * {@code W:Steppe}. Otherwise they are mapped according to their block type,
+ * like other terrains which don't have a fixed mapping.
+ */
+final class TerrainRules {
+    private TerrainRules(byte[] rules, Tiles.Tile[] tiles) {
+        this.rules = rules;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Get the rule for a terrain type; one of the {@code RULE_*} constants.
+     */
+    byte getRule(int terrainOrdinal) {
+        return rules[terrainOrdinal];
+    }
+
+    /**
+     * Get the fixed tile type for a terrain type with rule
+     * {@link #RULE_FIXED}, {@link #RULE_ROCK} or {@link #RULE_NAMED}.
+     */
+    Tiles.Tile getTile(int terrainOrdinal) {
+        return tiles[terrainOrdinal];
+    }
+
+    /**
+     * Compile the rules for the current terrain types. Since the names of
+     * custom terrains can change between exports, this should be done at the
+     * start of each export.
+     */
+    static TerrainRules compile() {
+        final Terrain[] terrains = Terrain.values();
+        final byte[] rules = new byte[terrains.length];
+        final Tiles.Tile[] tiles = new Tiles.Tile[terrains.length];
+        for (Terrain terrain: terrains) {
+            final int ordinal = terrain.ordinal();
+            if (terrain == Terrain.GRASS) {
+                rules[ordinal] = RULE_GRASS;
+            } else if (terrain == Terrain.BEACHES) {
+                rules[ordinal] = RULE_BEACH;
+            } else if (terrain.name().startsWith("CUSTOM_") && (terrain.getName() != null) && CUSTOM_TERRAIN_NAMES.containsKey(terrain.getName().toLowerCase(Locale.ROOT))) {
+                rules[ordinal] = RULE_NAMED;
+                tiles[ordinal] = CUSTOM_TERRAIN_NAMES.get(terrain.getName().toLowerCase(Locale.ROOT));
+            } else if ((ordinal < TERRAIN_MAPPING.length) && (TERRAIN_MAPPING[ordinal] != null)) {
+                rules[ordinal] = (TERRAIN_MAPPING[ordinal] == TILE_ROCK) ? RULE_ROCK : RULE_FIXED;
+                tiles[ordinal] = TERRAIN_MAPPING[ordinal];
+            } else {
+                rules[ordinal] = RULE_BLOCK;
+            }
+        }
+        return new TerrainRules(rules, tiles);
+    }
+
+    private final byte[] rules;
+    private final Tiles.Tile[] tiles;
+
+    /**
+     * Grass, with grass, flowers and moss above water and kelp or dirt below.
+     */
+    static final byte RULE_GRASS = 0;
+
+    /**
+     * The tile type corresponding to the block type, with reed in shallow
+     * water and kelp or dirt instead of grass in deeper water.
+     */
+    static final byte RULE_BEACH = 1;
+
+    /**
+     * A fixed tile type, with kelp or dirt instead of grass under water.
+     */
+    static final byte RULE_FIXED = 2;
+
+    /**
+     * The tile type corresponding to the block type, with kelp or dirt
+     * instead of grass under water and cliff instead of rock on steep slopes.
+     */
+    static final byte RULE_BLOCK = 3;
+
+    /**
+     * Rock, or cliff on steep slopes.
+     */
+    static final byte RULE_ROCK = 4;
+
+    /**
+     * A custom terrain with a fixed tile type by name, regardless of water
+     * and slope.
+     */
+    static final byte RULE_NAMED = 5;
+
+    /**
+     * Custom terrain names (in lower case) which are mapped to a fixed tile
+     * type.
+     */
+    static final Map<String, Tiles.Tile> CUSTOM_TERRAIN_NAMES = new HashMap<>();
+
+    private static final Tiles.Tile[] TERRAIN_MAPPING = {
+        null, // GRASS
+        TILE_DIRT, // DIRT
+        TILE_SAND, // SAND
+        TILE_ROCK, // SANDSTONE
+        TILE_ROCK, // STONE
+        TILE_ROCK, // ROCK
+        null, // WATER
+        TILE_LAVA, // LAVA
+        TILE_SNOW, // SNOW
+        TILE_SNOW, // DEEP_SNOW
+        TILE_GRAVEL, // GRAVEL
+        TILE_CLAY, // CLAY
+        TILE_COBBLESTONE, // COBBLESTONE
+        TILE_COBBLESTONE_ROUGH, // MOSSY_COBBLESTONE
+        TILE_ROCK, // NETHERRACK
+        TILE_TAR, // SOUL_SAND
+        TILE_ROCK, // OBSIDIAN
+        TILE_ROCK, // BEDROCK
+        TILE_SAND, // DESERT
+        TILE_ROCK, // NETHERLIKE
+        TILE_ROCK, // RESOURCES
+        null, // BEACHES
+        null, // CUSTOM_1
+        null, // CUSTOM_2
+        null, // CUSTOM_3
+        null, // CUSTOM_4
+        null, // CUSTOM_5
+        TILE_MYCELIUM, // MYCELIUM
+        TILE_ROCK, // END_STONE
+        TILE_GRASS, // BARE_GRASS
+        null, // CUSTOM_6
+        null, // CUSTOM_7
+        null, // CUSTOM_8
+        null, // CUSTOM_9
+        null, // CUSTOM_10
+        null, // CUSTOM_11
+        null, // CUSTOM_12
+        null, // CUSTOM_13
+        null, // CUSTOM_14
+        null, // CUSTOM_15
+        null, // CUSTOM_16
+        null, // CUSTOM_17
+        null, // CUSTOM_18
+        null, // CUSTOM_19
+        null, // CUSTOM_20
+        null, // CUSTOM_21
+        null, // CUSTOM_22
+        null, // CUSTOM_23
+        null, // CUSTOM_24
+        TILE_DIRT_PACKED, // PERMADIRT
+        TILE_PEAT, // PODZOL
+        TILE_SAND, // RED_SAND
+        TILE_CLAY, // HARDENED_CLAY
+        TILE_CLAY, // WHITE_STAINED_CLAY
+        TILE_CLAY, // ORANGE_STAINED_CLAY
+        TILE_CLAY, // MAGENTA_STAINED_CLAY
+        TILE_CLAY, // LIGHT_BLUE_STAINED_CLAY
+        TILE_CLAY, // YELLOW_STAINED_CLAY
+        TILE_CLAY, // LIME_STAINED_CLAY
+        TILE_CLAY, // PINK_STAINED_CLAY
+        TILE_CLAY, // GREY_STAINED_CLAY
+        TILE_CLAY, // LIGHT_GREY_STAINED_CLAY
+        TILE_CLAY, // CYAN_STAINED_CLAY
+        TILE_CLAY, // PURPLE_STAINED_CLAY
+        TILE_CLAY, // BLUE_STAINED_CLAY
+        TILE_CLAY, // BROWN_STAINED_CLAY
+        TILE_CLAY, // GREEN_STAINED_CLAY
+        TILE_CLAY, // RED_STAINED_CLAY
+        TILE_CLAY, // BLACK_STAINED_CLAY
+        TILE_ROCK, // MESA
+        TILE_SAND, // RED_DESERT
+        TILE_ROCK, // RED_SANDSTONE
+        TILE_ROCK, // GRANITE
+        TILE_ROCK, // DIORITE
+        TILE_ROCK, // ANDESITE
+        TILE_ROCK, // STONE_MIX
+        null, // CUSTOM_25,
+        null, // CUSTOM_26,
+        null, // CUSTOM_27,
+        null, // CUSTOM_28,
+        null, // CUSTOM_29,
+        null, // CUSTOM_30,
+        null, // CUSTOM_31,
+        null, // CUSTOM_32,
+        null, // CUSTOM_33,
+        null, // CUSTOM_34,
+        null, // CUSTOM_35,
+        null, // CUSTOM_36,
+        null, // CUSTOM_37,
+        null, // CUSTOM_38,
+        null, // CUSTOM_39,
+        null, // CUSTOM_40,
+        null, // CUSTOM_41,
+        null, // CUSTOM_42,
+        null, // CUSTOM_43,
+        null, // CUSTOM_44,
+        null, // CUSTOM_45,
+        null, // CUSTOM_46,
+        null, // CUSTOM_47,
+        null, // CUSTOM_48,
+        TILE_GRASS // GRASS_PATH
+    };
+
+    static {
+        CUSTOM_TERRAIN_NAMES.put("w:steppe", TILE_STEPPE);
+        CUSTOM_TERRAIN_NAMES.put("w:tundra", TILE_TUNDRA);
+        CUSTOM_TERRAIN_NAMES.put("w:peat", TILE_PEAT);
+        CUSTOM_TERRAIN_NAMES.put("w:moss", TILE_MOSS);
+        CUSTOM_TERRAIN_NAMES.put("w:marsh", TILE_MARSH);
+    }
+}
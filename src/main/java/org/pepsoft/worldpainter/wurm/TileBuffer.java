@@ -0,0 +1,195 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.BushData;
+import com.wurmonline.mesh.FoliageAge;
+import com.wurmonline.mesh.GrassData;
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.TreeData;
+
+import java.util.Arrays;
+
+/**
+ * A staging buffer for the Wurm Unlimited tiles of one WorldPainter tile. The
+ * {@link TileExporter} builds up the tiles in the buffer, overwriting and
+ * reading back tile types as it applies its rules, and then writes the end
+ * result to the {@link MapSink} in one go with
+ * {@link MapSink#setTiles(TileBuffer)}, so that every map tile is only
+ * encoded and written once.
+ *
+ * <p>The tiles are addressed by an index {@code dx * stride + dy}, where
+ * {@code dx} and {@code dy} are the coordinates relative to the origin of the
+ * buffer. The surface tile of every tile must be set before the buffer is
+ * written to the map.
+ *
+ * <p>As in the map, setting the type of a surface tile removes any grass,
+ * tree or bush from it. The types are stored as the tile IDs in which the map
+ * encodes them, so that all contents of the buffer are primitive arrays.
+ */
+final class TileBuffer {
+    TileBuffer(int stride) {
+        this.stride = stride;
+        types = new byte[stride * stride];
+        heights = new short[stride * stride];
+        rockHeights = new short[stride * stride];
+        flora = new int[stride * stride];
+    }
+
+    /**
+     * Clear the buffer for a new area of the map.
+     *
+     * @param x The X coordinate of the origin of the area in the map.
+     * @param y The Y coordinate of the origin of the area in the map.
+     * @param size The width and height of the area. Must not be larger than
+     *             the stride.
+     */
+    void reset(int x, int y, int size) {
+        this.x = x;
+        this.y = y;
+        this.size = size;
+        Arrays.fill(flora, 0);
+    }
+
+    void setSurfaceTile(int i, Tiles.Tile type, short height) {
+        types[i] = type.id;
+        heights[i] = height;
+        flora[i] = FLORA_NONE;
+    }
+
+    /**
+     * Set the type of a surface tile, leaving its height unchanged.
+     */
+    void setSurfaceType(int i, Tiles.Tile type) {
+        types[i] = type.id;
+        flora[i] = FLORA_NONE;
+    }
+
+    /**
+     * Get the ID of the type of a surface tile, not taking into account any
+     * tree or bush on it.
+     */
+    byte getSurfaceTypeId(int i) {
+        return types[i];
+    }
+
+    void setRockHeight(int i, short height) {
+        rockHeights[i] = height;
+    }
+
+    void setGrass(int i, GrassData.GrowthStage growthStage, GrassData.FlowerType flowerType) {
+        flora[i] = (FLORA_GRASS << 24) | (growthStage.ordinal() << 16) | (flowerType.ordinal() << 8);
+    }
+
+    void setTree(int i, TreeData.TreeType treeType, FoliageAge age, GrassData.GrowthTreeStage grassGrowthStage) {
+        flora[i] = (FLORA_TREE << 24) | (treeType.ordinal() << 16) | (age.ordinal() << 8) | grassGrowthStage.ordinal();
+    }
+
+    void setBush(int i, BushData.BushType bushType, FoliageAge age, GrassData.GrowthTreeStage grassGrowthStage) {
+        flora[i] = (FLORA_BUSH << 24) | (bushType.ordinal() << 16) | (age.ordinal() << 8) | grassGrowthStage.ordinal();
+    }
+
+    /**
+     * Determine whether there is a tree or bush on a tile.
+     */
+    boolean hasTreeOrBush(int i) {
+        final int kind = flora[i] >>> 24;
+        return (kind == FLORA_TREE) || (kind == FLORA_BUSH);
+    }
+
+    /**
+     * Record which WorldPainter tile the contents of the buffer were
+     * generated from.
+     */
+    void setSourceTile(int tileX, int tileY) {
+        sourceTileX = tileX;
+        sourceTileY = tileY;
+    }
+
+    int getSourceTileX() {
+        return sourceTileX;
+    }
+
+    int getSourceTileY() {
+        return sourceTileY;
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getStride() {
+        return stride;
+    }
+
+    short getHeight(int i) {
+        return heights[i];
+    }
+
+    short getRockHeight(int i) {
+        return rockHeights[i];
+    }
+
+    /**
+     * Get the kind of flora on a tile; one of the {@code FLORA_*} constants.
+     */
+    int getFloraKind(int i) {
+        return flora[i] >>> 24;
+    }
+
+    GrassData.GrowthStage getGrowthStage(int i) {
+        return GROWTH_STAGES[(flora[i] >> 16) & 0xff];
+    }
+
+    GrassData.FlowerType getFlowerType(int i) {
+        return FLOWER_TYPES[(flora[i] >> 8) & 0xff];
+    }
+
+    TreeData.TreeType getTreeType(int i) {
+        return TREE_TYPES[(flora[i] >> 16) & 0xff];
+    }
+
+    BushData.BushType getBushType(int i) {
+        return BUSH_TYPES[(flora[i] >> 16) & 0xff];
+    }
+
+    /**
+     * Get the age of the tree or bush on a tile.
+     */
+    FoliageAge getAge(int i) {
+        return FOLIAGE_AGES[(flora[i] >> 8) & 0xff];
+    }
+
+    /**
+     * Get the growth stage of the grass under the tree or bush on a tile.
+     */
+    GrassData.GrowthTreeStage getGrassGrowthStage(int i) {
+        return GROWTH_TREE_STAGES[flora[i] & 0xff];
+    }
+
+    private final int stride;
+    private final byte[] types;
+    private final short[] heights, rockHeights;
+
+    /**
+     * The grass, tree or bush on each tile, packed as the kind in the highest
+     * byte and the ordinals of up to three enums in the lower bytes.
+     */
+    private final int[] flora;
+    private int x, y, size, sourceTileX, sourceTileY;
+
+    static final int FLORA_NONE = 0, FLORA_GRASS = 1, FLORA_TREE = 2, FLORA_BUSH = 3;
+
+    private static final GrassData.GrowthStage[] GROWTH_STAGES = GrassData.GrowthStage.values();
+    private static final GrassData.FlowerType[] FLOWER_TYPES = GrassData.FlowerType.values();
+    private static final TreeData.TreeType[] TREE_TYPES = TreeData.TreeType.values();
+    private static final BushData.BushType[] BUSH_TYPES = BushData.BushType.values();
+    private static final FoliageAge[] FOLIAGE_AGES = FoliageAge.values();
+    private static final GrassData.GrowthTreeStage[] GROWTH_TREE_STAGES = GrassData.GrowthTreeStage.values();
+}
@@ -0,0 +1,1185 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.*;
+import org.pepsoft.util.*;
+import org.pepsoft.worldpainter.*;
+import org.pepsoft.worldpainter.layers.*;
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.wurmonline.mesh.Tiles.Tile.*;
+import static com.wurmonline.mesh.TreeData.TreeType.*;
+import static org.pepsoft.worldpainter.Constants.*;
+import static org.pepsoft.worldpainter.wurm.TerrainRules.*;
+
+/**
+ * Converts WorldPainter tiles to Wurm Unlimited map data. An instance holds
+ * its own scratch buffers and noise generators, so it may only be used by one
+ * thread at a time. Different instances may write to the same {@link MapSink}
+ * concurrently, as long as they are processing different tiles, since every
+ * WorldPainter tile maps to its own, non overlapping, area of the map. The
+ * Wurm tiles of a WorldPainter tile are built up in a {@link TileBuffer} and
+ * written to the map sink in one go, either by the tile exporter itself or,
+ * in a {@link TilePipeline}, by a separate writer thread.
+ *
+ * <p>The conversion kernels are package-private so that they can be
+ * benchmarked individually (see {@code src/jmh/java}).
+ */
+final class TileExporter {
+    TileExporter(Dimension dim, int waterLevel, int offsetX, int offsetY, MapSink map, ScalingMode scalingMode, Properties config, MaterialCache materialCache, ExportStatistics statistics) {
+        this.dim = dim;
+        this.waterLevel = waterLevel;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.map = map;
+        this.scalingMode = scalingMode;
+        this.materialCache = materialCache;
+        this.statistics = statistics;
+        tileKelpMinimumDepth = Float.parseFloat(config.getProperty("tile.kelp.minimumDepth"));
+        legacyRandom = Boolean.parseBoolean(config.getProperty("random.legacy", "false"));
+        heightEncoder = HeightEncoder.create(config.getProperty("pipeline.heightEncoder", "auto"));
+        seed = dim.getSeed();
+        terrainRules = TerrainRules.compile();
+
+        // Initialise noise fields
+        dandelionNoise.setSeed(seed + DANDELION_SEED_OFFSET);
+        roseNoise.setSeed(seed + ROSE_SEED_OFFSET);
+        flowerTypeField.setSeed(seed + FLOWER_TYPE_FIELD_OFFSET);
+        grassNoise.setSeed(seed + GRASS_SEED_OFFSET);
+        tallGrassNoise.setSeed(seed + DOUBLE_TALL_GRASS_SEED_OFFSET);
+        kelpNoise.setSeed(seed + KELP_SEED_OFFSET);
+        reedNoise.setSeed(seed + REED_SEED_OFFSET);
+    }
+
+    /**
+     * Get the IDs of the blocks encountered by this tile exporter which are
+     * not supported and were exported as dirt.
+     */
+    BitSet getUnsupportedBlocks() {
+        return unsupportedBlocksSet;
+    }
+
+    /**
+     * Convert a tile and write it to the map sink.
+     */
+    void processTile(final int tileX, final int tileY) {
+        generateTile(tileX, tileY, ownTiles);
+        final long start = System.nanoTime();
+        map.setTiles(ownTiles);
+        statistics.add(ExportStatistics.Phase.WRITING, System.nanoTime() - start);
+        statistics.tilesWritten(ownTiles.getSize() * ownTiles.getSize());
+    }
+
+    /**
+     * Convert a tile into a staging buffer, without writing it to the map
+     * sink, so that it can be written by another thread.
+     *
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param buffer The buffer to build the Wurm tiles in. Its previous
+     *               contents are discarded.
+     */
+    void generateTile(final int tileX, final int tileY, final TileBuffer buffer) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processing tile {},{}", tileX, tileY);
+        }
+        tiles = buffer;
+        tiles.setSourceTile(tileX, tileY);
+
+        final int scaledWaterLevel = (scalingMode == ScalingMode.WURM_SCALED) ? (waterLevel * 4) : waterLevel;
+
+        // Copy information from tile, scaling and averaging if necessary
+        final int wTileSize, wOffsetX, wOffsetY;
+        final boolean scaledHorizontally = scalingMode == ScalingMode.MINECRAFT, scaledVertically = scalingMode == ScalingMode.WURM_SCALED;
+        final long samplingStart = System.nanoTime();
+        noiseEvaluations = 0;
+        sampleTile(tileX, tileY, scaledHorizontally);
+        if (scaledHorizontally) {
+            wTileSize = TILE_SIZE / 4;
+            wOffsetX = ((tileX << TILE_SIZE_BITS) + offsetX) / 4;
+            wOffsetY = ((tileY << TILE_SIZE_BITS) + offsetY) / 4;
+            downsampleTile();
+            for (int wDx = 0; wDx <= wTileSize; wDx++) {
+                final int corners = wDx * CORNER_STRIDE, sums = wDx * CORNER_COUNT;
+                for (int wDy = 0; wDy <= wTileSize; wDy++) {
+                    cornerHeights[corners + wDy] = heightSums[sums + wDy] / 16;
+                }
+            }
+            for (int wDx = 0; wDx < wTileSize; wDx++) {
+                final int x = (wDx << 2) + HALO, sums = wDx * CORNER_COUNT;
+                for (int wDy = 0; wDy < wTileSize; wDy++) {
+                    final int i = wDx * TILE_SIZE + wDy, y = (wDy << 2) + HALO;
+                    topLayerDepths[i] = topLayerDepthSums[sums + wDy] / 16;
+                    terrains[i] = (byte) getPrevalentTerrainOrdinal(x, y);
+                    blocks[i] = (short) getPrevalentBlockID(x, y);
+                }
+            }
+        } else {
+            wTileSize = TILE_SIZE;
+            wOffsetX = (tileX << TILE_SIZE_BITS) + offsetX;
+            wOffsetY = (tileY << TILE_SIZE_BITS) + offsetY;
+            final int verticalScale = scaledVertically ? 4 : 1;
+            for (int dx = 0; dx <= TILE_SIZE; dx++) {
+                final int corners = dx * CORNER_STRIDE, samples = (dx + HALO) * RASTER_SIZE + HALO;
+                for (int dy = 0; dy <= TILE_SIZE; dy++) {
+                    cornerHeights[corners + dy] = heightSamples[samples + dy] * verticalScale;
+                }
+            }
+            for (int dx = 0; dx < TILE_SIZE; dx++) {
+                final int samples = (dx + HALO) * RASTER_SIZE + HALO;
+                for (int dy = 0; dy < TILE_SIZE; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    topLayerDepths[i] = topLayerDepthSamples[samples + dy] * verticalScale;
+                    terrains[i] = terrainSamples[samples + dy];
+                    blocks[i] = (short) blockSamples[samples + dy];
+                }
+            }
+        }
+        computeTileHeightsAndSlopes(cornerHeights, tileHeights, slopes, wTileSize);
+
+        final long terrainStart = System.nanoTime();
+
+        tiles.reset(wOffsetX, wOffsetY, wTileSize);
+
+        // Evaluate the noise for the flora
+        evaluateNoise(wTileSize, wOffsetX, wOffsetY, scaledWaterLevel);
+
+        // Generate terrain
+        if (legacyRandom) {
+            tileRandom.setSeed(seed + tileX * 65537 + tileY + 4099);
+        }
+        for (int dx = 0; dx < wTileSize; dx++) {
+            heightEncoder.encodeRow(cornerHeights, dx * CORNER_STRIDE, topLayerDepths, dx * TILE_SIZE, scaledWaterLevel, wurmHeights, rockHeights, wTileSize);
+            for (int dy = 0; dy < wTileSize; dy++) {
+                final int wX = wOffsetX + dx, wY = wOffsetY + dy, i = dx * TILE_SIZE + dy;
+                final float cornerHeight = cornerHeights[dx * CORNER_STRIDE + dy];
+                final short wurmHeight = wurmHeights[i];
+                final float tileHeight = tileHeights[i];
+                tiles.setRockHeight(i, rockHeights[i]);
+                final int terrainOrdinal = terrains[i] & 0xff;
+                Tiles.Tile tileType;
+                switch (terrainRules.getRule(terrainOrdinal)) {
+                    case RULE_GRASS:
+                        if (tileHeight >= scaledWaterLevel) {
+                            placeGrass(cornerHeight, scaledWaterLevel, i);
+                            if (nextInt(tileRandom, seed, wX, wY, RANDOM_MOSS, 64) == 0) {
+                                tiles.setSurfaceType(i, TILE_MOSS);
+                            }
+                        } else if ((scaledWaterLevel - tileHeight) > tileKelpMinimumDepth){
+                            if (kelpNoiseValues[i] > KELP_CHANCE) {
+                                tiles.setSurfaceTile(i, TILE_KELP, wurmHeight);
+                            } else {
+                                tiles.setSurfaceTile(i, TILE_DIRT, wurmHeight);
+                            }
+                        } else {
+                            tiles.setSurfaceTile(i, TILE_DIRT, wurmHeight);
+                        }
+                        break;
+                    case RULE_BEACH:
+                        tileType = getTileTypeForBlock(blocks[i]);
+                        if (tileHeight < scaledWaterLevel) {
+                            if (((scaledWaterLevel - tileHeight) < 1)
+                                    && ((tileType == TILE_GRASS) || (tileType == TILE_SAND))
+                                    && (reedNoiseValues[i] > REED_CHANCE)) {
+                                tiles.setSurfaceTile(i, TILE_REED, wurmHeight);
+                            } else if (tileType == TILE_GRASS) {
+                                if (((scaledWaterLevel - tileHeight) > tileKelpMinimumDepth) && (kelpNoiseValues[i] > KELP_CHANCE)) {
+                                    tiles.setSurfaceTile(i, TILE_KELP, wurmHeight);
+                                } else {
+                                    tiles.setSurfaceTile(i, TILE_DIRT, wurmHeight);
+                                }
+                            } else {
+                                tiles.setSurfaceTile(i, tileType, wurmHeight);
+                            }
+                        } else {
+                            tiles.setSurfaceTile(i, tileType, wurmHeight);
+                        }
+                        break;
+                    case RULE_NAMED:
+                        tiles.setSurfaceTile(i, terrainRules.getTile(terrainOrdinal), wurmHeight);
+                        break;
+                    case RULE_ROCK:
+                        tiles.setSurfaceTile(i, (slopes[i] > 1.0) ? TILE_CLIFF : TILE_ROCK, wurmHeight);
+                        break;
+                    default:
+                        // RULE_FIXED or RULE_BLOCK
+                        tileType = terrainRules.getTile(terrainOrdinal);
+                        if (tileType == null) {
+                            tileType = getTileTypeForBlock(blocks[i]);
+                        }
+                        if ((tileHeight < scaledWaterLevel) && (tileType == TILE_GRASS)) {
+                            if (((scaledWaterLevel - tileHeight) > tileKelpMinimumDepth) && (kelpNoiseValues[i] > KELP_CHANCE)) {
+                                tiles.setSurfaceTile(i, TILE_KELP, wurmHeight);
+                            } else {
+                                tiles.setSurfaceTile(i, TILE_DIRT, wurmHeight);
+                            }
+                        } else if ((tileType == TILE_ROCK) && (slopes[i] > 1.0)) {
+                            tiles.setSurfaceTile(i, TILE_CLIFF, wurmHeight);
+                        } else {
+                            tiles.setSurfaceTile(i, tileType, wurmHeight);
+                        }
+                        break;
+                }
+            }
+        }
+
+        // Process layers. Decode them all first and then apply them in one
+        // sweep, except with the legacy random numbers, which must be drawn
+        // layer by layer
+        final long layersStart = System.nanoTime();
+        final int layerCount = decodeLayers(neighbourhood[4], scaledHorizontally);
+        if (legacyRandom) {
+            for (int l = 0; l < layerCount; l++) {
+                for (int dx = 0; dx < wTileSize; dx++) {
+                    for (int dy = 0; dy < wTileSize; dy++) {
+                        applyLayer(l, dx, dy, wOffsetX, wOffsetY);
+                    }
+                }
+            }
+        } else if (layerCount > 0) {
+            for (int dx = 0; dx < wTileSize; dx++) {
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    for (int l = 0; l < layerCount; l++) {
+                        applyLayer(l, dx, dy, wOffsetX, wOffsetY);
+                    }
+                }
+            }
+        }
+        final long end = System.nanoTime();
+        statistics.tileExported(tileX, tileY, terrainStart - samplingStart, layersStart - terrainStart, end - layersStart, blocksSampled, noiseEvaluations);
+    }
+
+    /**
+     * Get a pseudo random integer for a decision about a Wurm tile. Depending
+     * on the {@code random.legacy} setting this is either the next number
+     * from the specified legacy generator, which must have been seeded the
+     * way previous versions of the exporter did, or a number derived from the
+     * seed, the coordinates and the purpose by {@link CoordinateRandom}.
+     */
+    private int nextInt(Random legacyGenerator, long seed, int wX, int wY, int purpose, int bound) {
+        return legacyRandom ? legacyGenerator.nextInt(bound) : CoordinateRandom.nextInt(seed, wX, wY, purpose, bound);
+    }
+
+    /**
+     * Decode the Frost and tree layers of a tile into {@link #layerRasters},
+     * with one value per Wurm tile: for Frost 1 if the tile should be snow,
+     * and for tree layers the level. In Minecraft mode the values are
+     * aggregated over 4x4 blocks; for Frost by packing the bits into a raster
+     * of longs and counting them four at a time, for tree layers by averaging.
+     *
+     * @return The number of layers decoded.
+     */
+    int decodeLayers(final Tile tile, final boolean scaledHorizontally) {
+        int layerCount = 0;
+        for (Layer layer: tile.getLayers()) {
+            final byte layerType;
+            if (layer.equals(Frost.INSTANCE)) {
+                layerType = LAYER_FROST;
+            } else if (layer instanceof SwampLand) {
+                layerType = LAYER_SWAMP;
+            } else if (layer instanceof TreeLayer) {
+                layerType = LAYER_TREES;
+            } else {
+                continue;
+            }
+            if (layerCount == layerRasters.length) {
+                layerTypes = Arrays.copyOf(layerTypes, layerCount * 2);
+                layerSeeds = Arrays.copyOf(layerSeeds, layerCount * 2);
+                layerTreeTypes = Arrays.copyOf(layerTreeTypes, layerCount * 2);
+                layerRasters = Arrays.copyOf(layerRasters, layerCount * 2);
+                for (int i = layerCount; i < layerRasters.length; i++) {
+                    layerRasters[i] = new byte[TILE_SIZE * TILE_SIZE];
+                }
+            }
+            layerTypes[layerCount] = layerType;
+            layerSeeds[layerCount] = CoordinateRandom.deriveSeed(seed, layer.getId().hashCode());
+            layerTreeTypes[layerCount] = TREE_TYPE_MAPPING.get(layer);
+            final byte[] raster = layerRasters[layerCount];
+            if (layerType == LAYER_FROST) {
+                decodeFrost(tile, raster, scaledHorizontally);
+            } else if (scaledHorizontally) {
+                for (int wDx = 0; wDx < TILE_SIZE / 4; wDx++) {
+                    for (int wDy = 0; wDy < TILE_SIZE / 4; wDy++) {
+                        final int x = wDx * 4, y = wDy * 4;
+                        int total = 0;
+                        for (int dx = 0; dx < 4; dx++) {
+                            for (int dy = 0; dy < 4; dy++) {
+                                total += tile.getLayerValue(layer, x + dx, y + dy);
+                            }
+                        }
+                        raster[wDx * TILE_SIZE + wDy] = (byte) (total / 16);
+                    }
+                }
+            } else {
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    for (int y = 0; y < TILE_SIZE; y++) {
+                        raster[x * TILE_SIZE + y] = (byte) tile.getLayerValue(layer, x, y);
+                    }
+                }
+            }
+            layerCount++;
+        }
+        return layerCount;
+    }
+
+    private void decodeFrost(final Tile tile, final byte[] raster, final boolean scaledHorizontally) {
+        if (scaledHorizontally) {
+            Arrays.fill(frostBits, 0L);
+            for (int x = 0; x < TILE_SIZE; x++) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    if (tile.getBitLayerValue(Frost.INSTANCE, x, y)) {
+                        frostBits[x * FROST_WORDS_PER_ROW + (y >> 6)] |= 1L << (y & 63);
+                    }
+                }
+            }
+            for (int wDx = 0; wDx < TILE_SIZE / 4; wDx++) {
+                final int row = wDx * 4 * FROST_WORDS_PER_ROW;
+                for (int wDy = 0; wDy < TILE_SIZE / 4; wDy++) {
+                    final int word = row + ((wDy * 4) >> 6), shift = (wDy * 4) & 63;
+                    final int count = Long.bitCount((frostBits[word] >>> shift) & 0xfL)
+                            + Long.bitCount((frostBits[word + FROST_WORDS_PER_ROW] >>> shift) & 0xfL)
+                            + Long.bitCount((frostBits[word + 2 * FROST_WORDS_PER_ROW] >>> shift) & 0xfL)
+                            + Long.bitCount((frostBits[word + 3 * FROST_WORDS_PER_ROW] >>> shift) & 0xfL);
+                    raster[wDx * TILE_SIZE + wDy] = (byte) ((count >= 8) ? 1 : 0);
+                }
+            }
+        } else {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    raster[x * TILE_SIZE + y] = (byte) (tile.getBitLayerValue(Frost.INSTANCE, x, y) ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply one of the layers decoded by {@link #decodeLayers(Tile, boolean)}
+     * to a Wurm tile in the staging buffer.
+     */
+    private void applyLayer(final int l, final int dx, final int dy, final int wOffsetX, final int wOffsetY) {
+        final int i = dx * TILE_SIZE + dy, level = layerRasters[l][i];
+        if (level == 0) {
+            return;
+        }
+        final float tileHeight = tileHeights[i];
+        final boolean flooded = tileHeight < waterLevel;
+        final int wX = wOffsetX + dx, wY = wOffsetY + dy;
+        final byte layerType = layerTypes[l];
+        if (layerType == LAYER_FROST) {
+            if (! flooded) {
+                tiles.setSurfaceType(i, TILE_SNOW);
+            }
+            return;
+        }
+        final byte existingTile = tiles.getSurfaceTypeId(i);
+        if (tiles.hasTreeOrBush(i)
+                || ((existingTile != TILE_GRASS.id) && (existingTile != TILE_DIRT.id) && (existingTile != TILE_MARSH.id) && (existingTile != TILE_MOSS.id))) {
+            return;
+        }
+        final long layerSeed = layerSeeds[l];
+        if (layerType == LAYER_SWAMP) {
+            if ((Math.abs(tileHeight - waterLevel) < 1) && ((existingTile == TILE_GRASS.id) || (existingTile == TILE_DIRT.id))) {
+                tiles.setSurfaceType(i, TILE_MARSH);
+            } else if ((nextInt(tileRandom, layerSeed, wX, wY, RANDOM_MOSS, 16) <= level) && (existingTile == TILE_GRASS.id)) {
+                tiles.setSurfaceType(i, TILE_MOSS);
+            }
+        } else if ((! flooded) && (nextInt(tileRandom, layerSeed, wX, wY, RANDOM_MOSS, 32) <= level) && (existingTile == TILE_GRASS.id)) {
+            tiles.setSurfaceType(i, TILE_MOSS);
+        }
+        if ((! flooded) && (nextInt(tileRandom, layerSeed, wX, wY, RANDOM_FLORA, 16) <= level)) {
+            // The arguments must be evaluated in this order for the legacy
+            // random numbers
+            if (nextInt(tileRandom, layerSeed, wX, wY, RANDOM_BUSH, 5) == 0) {
+                tiles.setBush(i, BushData.BushType.fromInt(nextInt(tileRandom, layerSeed, wX, wY, RANDOM_FLORA_TYPE, 6)), FoliageAge.fromByte((byte) nextInt(tileRandom, layerSeed, wX, wY, RANDOM_FOLIAGE_AGE, 16)), GrassData.GrowthTreeStage.fromInt(nextInt(tileRandom, layerSeed, wX, wY, RANDOM_GROWTH_STAGE, 4)));
+            } else {
+                final TreeData.TreeType[] treeTypes = layerTreeTypes[l];
+                tiles.setTree(i, treeTypes[nextInt(tileRandom, layerSeed, wX, wY, RANDOM_FLORA_TYPE, treeTypes.length)], FoliageAge.fromByte((byte) nextInt(tileRandom, layerSeed, wX, wY, RANDOM_FOLIAGE_AGE, 16)), GrassData.GrowthTreeStage.fromInt(nextInt(tileRandom, layerSeed, wX, wY, RANDOM_GROWTH_STAGE, 4)));
+            }
+        }
+    }
+
+    /**
+     * Work out which noise fields are needed for the flora of which tiles, and
+     * then evaluate them one field at a time into the noise buffers, so that
+     * no field is evaluated where its value would not be used.
+     *
+     * <p>The Perlin noise is not interpolated from a coarser lattice, since
+     * that would not reproduce the values exactly and would change existing
+     * maps; the saving comes from not evaluating fields for tiles that don't
+     * need them (for instance kelp noise is only evaluated for grass below
+     * the minimum kelp depth), and from evaluating each field in one tight
+     * loop.
+     *
+     * <p>The random numbers for the grass are drawn here too.
+     */
+    private void evaluateNoise(final int wTileSize, final int wOffsetX, final int wOffsetY, final int scaledWaterLevel) {
+        // Work out which fields are needed where
+        boolean kelpNeeded = false, reedNeeded = false, grassNeeded = false;
+        for (int dx = 0; dx < wTileSize; dx++) {
+            for (int dy = 0; dy < wTileSize; dy++) {
+                final int i = dx * TILE_SIZE + dy;
+                final float tileHeight = tileHeights[i];
+                final int terrainOrdinal = terrains[i] & 0xff;
+                final byte rule = terrainRules.getRule(terrainOrdinal);
+                byte demand = 0;
+                if (rule == RULE_GRASS) {
+                    if (tileHeight >= scaledWaterLevel) {
+                        demand = NOISE_GRASS;
+                        final int wX = wOffsetX + dx, wY = wOffsetY + dy;
+                        if (legacyRandom) {
+                            final int wpX = wX * 4, wpY = wY * 4;
+                            grassRandom.setSeed(seed + (wpX * 65537) + (wpY * 4099));
+                        }
+                        if (nextInt(grassRandom, seed, wX, wY, RANDOM_GRASS_FLOWERS, FLOWER_INCIDENCE) == 0) {
+                            grassRolls[i] = GRASS_ROLL_FLOWERS;
+                        } else {
+                            grassJitters[i] = (legacyRandom ? grassRandom.nextFloat() : CoordinateRandom.nextFloat(seed, wX, wY, RANDOM_GRASS_JITTER)) * 0.3f - 0.15f;
+                            grassRolls[i] = (byte) nextInt(grassRandom, seed, wX, wY, RANDOM_GRASS_HEIGHT, 4);
+                        }
+                    } else if ((scaledWaterLevel - tileHeight) > tileKelpMinimumDepth) {
+                        demand = NOISE_KELP;
+                    }
+                } else if ((tileHeight < scaledWaterLevel) && (rule != RULE_NAMED)) {
+                    Tiles.Tile tileType = (rule == RULE_BEACH) ? null : terrainRules.getTile(terrainOrdinal);
+                    if (tileType == null) {
+                        tileType = getTileTypeForBlock(blocks[i]);
+                    }
+                    if ((rule == RULE_BEACH) && ((scaledWaterLevel - tileHeight) < 1) && ((tileType == TILE_GRASS) || (tileType == TILE_SAND))) {
+                        demand = NOISE_REED;
+                    }
+                    if ((tileType == TILE_GRASS) && ((scaledWaterLevel - tileHeight) > tileKelpMinimumDepth)) {
+                        demand |= NOISE_KELP;
+                    }
+                }
+                noiseDemand[i] = demand;
+                kelpNeeded |= (demand & NOISE_KELP) != 0;
+                reedNeeded |= (demand & NOISE_REED) != 0;
+                grassNeeded |= (demand & NOISE_GRASS) != 0;
+            }
+        }
+
+        // Evaluate the fields
+        if (kelpNeeded) {
+            for (int dx = 0; dx < wTileSize; dx++) {
+                final int wX = wOffsetX + dx;
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    if ((noiseDemand[i] & NOISE_KELP) != 0) {
+                        final int wY = wOffsetY + dy;
+                        final float tileHeight = tileHeights[i];
+                        noiseEvaluations++;
+                        kelpNoiseValues[i] = kelpNoise.getPerlinNoise(wX / TINY_BLOBS, wY / TINY_BLOBS, tileHeight / TINY_BLOBS);
+                    }
+                }
+            }
+        }
+        if (reedNeeded) {
+            for (int dx = 0; dx < wTileSize; dx++) {
+                final int wX = wOffsetX + dx;
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    if ((noiseDemand[i] & NOISE_REED) != 0) {
+                        final int wY = wOffsetY + dy;
+                        final float tileHeight = tileHeights[i];
+                        noiseEvaluations++;
+                        reedNoiseValues[i] = reedNoise.getPerlinNoise(wX / SMALL_BLOBS, wY / SMALL_BLOBS, tileHeight / SMALL_BLOBS);
+                    }
+                }
+            }
+        }
+        if (grassNeeded) {
+            // Keep the "1 / SMALLBLOBS" and the two flower noise generators
+            // for constistency with existing maps
+            for (int dx = 0; dx < wTileSize; dx++) {
+                final int wpX = (wOffsetX + dx) * 4;
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    if (((noiseDemand[i] & NOISE_GRASS) != 0) && (grassRolls[i] == GRASS_ROLL_FLOWERS)) {
+                        final int wpY = (wOffsetY + dy) * 4;
+                        boolean flower = dandelionNoise.getPerlinNoise(wpX / SMALL_BLOBS, wpY / SMALL_BLOBS, 1 / SMALL_BLOBS) > FLOWER_CHANCE;
+                        noiseEvaluations++;
+                        if (! flower) {
+                            flower = roseNoise.getPerlinNoise(wpX / SMALL_BLOBS, wpY / SMALL_BLOBS, 1 / SMALL_BLOBS) > FLOWER_CHANCE;
+                            noiseEvaluations++;
+                        }
+                        if (flower) {
+                            flowerTypes[i] = (byte) flowerTypeField.getValue(wpX, wpY);
+                        } else {
+                            flowerTypes[i] = NO_FLOWER;
+                        }
+                    }
+                }
+            }
+            for (int dx = 0; dx < wTileSize; dx++) {
+                final int wpX = (wOffsetX + dx) * 4;
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    if (((noiseDemand[i] & NOISE_GRASS) != 0) && (grassRolls[i] != GRASS_ROLL_FLOWERS)) {
+                        final int wpY = (wOffsetY + dy) * 4;
+                        noiseEvaluations++;
+                        grassNoiseValues[i] = grassNoise.getPerlinNoise(wpX / SMALL_BLOBS, wpY / SMALL_BLOBS, 1 / SMALL_BLOBS) + grassJitters[i];
+                    }
+                }
+            }
+            for (int dx = 0; dx < wTileSize; dx++) {
+                final int wpX = (wOffsetX + dx) * 4;
+                for (int dy = 0; dy < wTileSize; dy++) {
+                    final int i = dx * TILE_SIZE + dy;
+                    if (((noiseDemand[i] & NOISE_GRASS) != 0) && (grassRolls[i] != GRASS_ROLL_FLOWERS) && (grassNoiseValues[i] > GRASS_CHANCE)) {
+                        final int wpY = (wOffsetY + dy) * 4;
+                        noiseEvaluations++;
+                        tallGrassNoiseValues[i] = tallGrassNoise.getPerlinNoise(wpX / SMALL_BLOBS, wpY / SMALL_BLOBS, 1 / SMALL_BLOBS);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Place grass and flowers on a tile, using the noise values and random
+     * numbers prepared for it by {@link #evaluateNoise(int, int, int, int)}.
+     */
+    void placeGrass(final float height, final int waterLevel, final int i) {
+        tiles.setSurfaceTile(i, TILE_GRASS, (short) ((height - waterLevel) * 10 + 0.5f));
+        if (grassRolls[i] == GRASS_ROLL_FLOWERS) {
+            if (flowerTypes[i] != NO_FLOWER) {
+                tiles.setGrass(i, GrassData.GrowthStage.SHORT, GrassData.FlowerType.fromInt(flowerTypes[i]));
+            }
+        } else {
+            final float grassValue = grassNoiseValues[i];
+            if (grassValue > GRASS_CHANCE) {
+                if (tallGrassNoiseValues[i] > 0) {
+                    // Double tallness
+                    if (grassValue > DOUBLE_TALL_GRASS_CHANCE) {
+                        if (grassRolls[i] == 0) {
+                            tiles.setGrass(i, GrassData.GrowthStage.WILD, GrassData.FlowerType.NONE);
+                        } else {
+                            tiles.setGrass(i, GrassData.GrowthStage.TALL, GrassData.FlowerType.NONE);
+                        }
+                    } else  {
+                        tiles.setGrass(i, GrassData.GrowthStage.MEDIUM, GrassData.FlowerType.NONE);
+                    }
+                } else {
+                    tiles.setGrass(i, GrassData.GrowthStage.MEDIUM, GrassData.FlowerType.NONE);
+                }
+            }
+        }
+    }
+
+    private static Tiles.Tile getTileTypeForBlock(final int blockId) {
+        if ((blockId != -1) && (blockId < BLOCK_MAPPING.length) && (BLOCK_MAPPING[blockId] != null)) {
+            return BLOCK_MAPPING[blockId];
+        } else {
+            return DEFAULT_TILE_TYPE;
+        }
+    }
+
+    /**
+     * Copy the data needed to convert a tile from the tile and its neighbours
+     * to the sample rasters, looking up each tile only once. The rasters are
+     * indexed by {@code x * RASTER_SIZE + y} and extend {@link #HALO} blocks
+     * beyond the tile on all sides. Only the parts needed by the scaling mode
+     * are filled in:
+     *
+     * <ul><li>heights: the tile plus the extra corner row and column, or in
+     * Minecraft mode the tile plus the halo needed to average the corners
+     * <li>top layer depths: the tile, or in Minecraft mode the blocks needed
+     * to average the corners of the tile
+     * <li>terrain and block IDs: the tile only</ul>
+     */
+    void sampleTile(final int tileX, final int tileY, final boolean scaledHorizontally) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                neighbourhood[(dx + 1) * 3 + dy + 1] = dim.getTile(tileX + dx, tileY + dy);
+            }
+        }
+        final int xOffset = (tileX << TILE_SIZE_BITS) - HALO, yOffset = (tileY << TILE_SIZE_BITS) - HALO;
+
+        // Heights (and in Minecraft mode top layer depths)
+        final int heightsFrom = scaledHorizontally ? 0 : HALO, heightsTo = scaledHorizontally ? RASTER_SIZE : (HALO + TILE_SIZE + 1);
+        blocksSampled = (heightsTo - heightsFrom) * (heightsTo - heightsFrom);
+        for (int rx = heightsFrom; rx < heightsTo; rx++) {
+            final int x = xOffset + rx, localX = x & TILE_SIZE_MASK, column = ((x >> TILE_SIZE_BITS) - tileX + 1) * 3;
+            for (int ry = heightsFrom; ry < heightsTo; ry++) {
+                final int y = yOffset + ry, i = rx * RASTER_SIZE + ry;
+                final Tile tile = neighbourhood[column + (y >> TILE_SIZE_BITS) - tileY + 1];
+                if (tile != null) {
+                    heightSamples[i] = tile.getHeight(localX, y & TILE_SIZE_MASK);
+                } else {
+                    heightSamples[i] = dim.getHeightAt(x, y);
+                }
+                if (scaledHorizontally && (rx < TILE_SIZE) && (ry < TILE_SIZE)) {
+                    // The corners are averaged over the 4x4 blocks centered on
+                    // them, so the depths are needed for the blocks from two
+                    // to the northwest of the first corner up to two to the
+                    // southeast of the last corner
+                    topLayerDepthSamples[i] = dim.getTopLayerDepth(x, y, (tile != null) ? tile.getIntHeight(localX, y & TILE_SIZE_MASK) : dim.getIntHeightAt(x, y));
+                }
+            }
+        }
+
+        // Terrain, block IDs and (in the unscaled modes) top layer depths
+        final Tile tile = neighbourhood[4];
+        for (int dx = 0; dx < TILE_SIZE; dx++) {
+            final int x = xOffset + HALO + dx;
+            for (int dy = 0; dy < TILE_SIZE; dy++) {
+                final int y = yOffset + HALO + dy, i = (dx + HALO) * RASTER_SIZE + dy + HALO;
+                final float height = heightSamples[i];
+                final int intHeight = (int) (height + 0.5f);
+                final Terrain terrain = tile.getTerrain(dx, dy);
+                terrainSamples[i] = (byte) terrain.ordinal();
+                blockSamples[i] = materialCache.getBlockType(terrain, x, y, height, intHeight);
+                if (! scaledHorizontally) {
+                    topLayerDepthSamples[i] = dim.getTopLayerDepth(x, y, intHeight);
+                }
+            }
+        }
+    }
+
+    int getPrevalentBlockID(final int x, final int y) {
+        Arrays.fill(blockIdBuckets, 0);
+        int highestBlockId = -1, highestBlockCount = 0;
+        for (int dx = 0; dx < 4; dx++) {
+            for (int dy = 0; dy < 4; dy++) {
+                final int blockId = blockSamples[(x + dx) * RASTER_SIZE + y + dy];
+                if ((blockId >= BLOCK_MAPPING.length) || (BLOCK_MAPPING[blockId] == null)) {
+                    unsupportedBlocksSet.set(blockId);
+                    continue;
+                }
+                blockIdBuckets[blockId]++;
+                if (blockIdBuckets[blockId] > highestBlockCount) {
+                    highestBlockCount = blockIdBuckets[blockId];
+                    highestBlockId = blockId;
+                }
+            }
+        }
+        return highestBlockId;
+    }
+
+    /**
+     * Get the ordinal of the most prevalent terrain type in a 4x4 area of the
+     * sample rasters.
+     */
+    int getPrevalentTerrainOrdinal(final int x, final int y) {
+        Arrays.fill(terrainBuckets, 0);
+        int highestTerrainIndex = -1, highestTerrainCount = 0;
+        for (int dx = 0; dx < 4; dx++) {
+            for (int dy = 0; dy < 4; dy++) {
+                final int terrainIndex = terrainSamples[(x + dx) * RASTER_SIZE + y + dy] & 0xff;
+                terrainBuckets[terrainIndex]++;
+                if (terrainBuckets[terrainIndex] > highestTerrainCount) {
+                    highestTerrainCount = terrainBuckets[terrainIndex];
+                    highestTerrainIndex = terrainIndex;
+                }
+            }
+        }
+        return highestTerrainIndex;
+    }
+
+    /**
+     * Sum the height and top layer depth samples over the 4x4 blocks around
+     * each corner, for Minecraft mode. The areas of the corners don't overlap
+     * and together exactly cover the sample rasters, so this is done in a
+     * single sequential pass over the rasters, adding each sample to the
+     * total of the corner it belongs to. Each corner receives its samples in
+     * the same order as when summing its 4x4 area directly, so the resulting
+     * floating point totals are identical.
+     */
+    void downsampleTile() {
+        Arrays.fill(heightSums, 0f);
+        Arrays.fill(topLayerDepthSums, 0f);
+        for (int rx = 0; rx < RASTER_SIZE; rx++) {
+            final int corners = (rx >> 2) * CORNER_COUNT, samples = rx * RASTER_SIZE;
+            for (int ry = 0; ry < RASTER_SIZE; ry++) {
+                heightSums[corners + (ry >> 2)] += heightSamples[samples + ry];
+            }
+            if (rx < TILE_SIZE) {
+                for (int ry = 0; ry < TILE_SIZE; ry++) {
+                    topLayerDepthSums[corners + (ry >> 2)] += topLayerDepthSamples[samples + ry];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate the average height and the maximum slope of every tile from
+     * the heights of its four corners, in a single pass. The inner loop only
+     * reads two adjacent rows of the corner heights and writes two rows of
+     * output, without branches (the minimum and maximum are selected rather
+     * than branched on), so that the JIT compiler can unroll and vectorise
+     * it.
+     *
+     * @param cornerHeights The heights of the corners, with a stride of
+     *                      {@link #CORNER_STRIDE}.
+     * @param tileHeights The array to store the average heights in, with a
+     *                    stride of {@code TILE_SIZE}.
+     * @param slopes The array to store the maximum slopes in, with a stride of
+     *               {@code TILE_SIZE}. 1.0 means 45 degrees.
+     * @param size The number of tiles in each direction.
+     */
+    static void computeTileHeightsAndSlopes(final float[] cornerHeights, final float[] tileHeights, final float[] slopes, final int size) {
+        for (int dx = 0; dx < size; dx++) {
+            final int row = dx * CORNER_STRIDE, nextRow = row + CORNER_STRIDE, out = dx * TILE_SIZE;
+            for (int dy = 0; dy < size; dy++) {
+                final float nw = cornerHeights[row + dy], sw = cornerHeights[row + dy + 1], ne = cornerHeights[nextRow + dy], se = cornerHeights[nextRow + dy + 1];
+                final float max1 = (nw > sw) ? nw : sw, max2 = (ne > se) ? ne : se;
+                final float min1 = (nw < sw) ? nw : sw, min2 = (ne < se) ? ne : se;
+                tileHeights[out + dy] = (nw + sw + ne + se) / 4;
+                slopes[out + dy] = (((max1 > max2) ? max1 : max2) - ((min1 < min2) ? min1 : min2)) / 4;
+            }
+        }
+    }
+
+    private final Dimension dim;
+    private final int waterLevel, offsetX, offsetY;
+    private final MapSink map;
+    private final ExportStatistics statistics;
+    private final ScalingMode scalingMode;
+    private final MaterialCache materialCache;
+    private final float tileKelpMinimumDepth;
+    private final long seed;
+    private final TerrainRules terrainRules;
+
+    /**
+     * Whether to use the random numbers of previous versions of the exporter,
+     * drawn in iteration order from {@link Random}s seeded per tile, rather
+     * than those of {@link CoordinateRandom}. The generators are reseeded
+     * rather than recreated.
+     */
+    private final boolean legacyRandom;
+    private final Random tileRandom = new Random(), grassRandom = new Random();
+    private final BitSet unsupportedBlocksSet = new BitSet(4096);
+
+    /**
+     * Counters for the tile currently being processed, for the statistics.
+     */
+    private int blocksSampled, noiseEvaluations;
+
+    // Noise fields
+    private final PerlinNoise dandelionNoise = new PerlinNoise(0);
+    private final PerlinNoise roseNoise = new PerlinNoise(0);
+    private final PerlinNoise grassNoise = new PerlinNoise(0);
+    private final RandomField flowerTypeField = new RandomField(4, SMALL_BLOBS, 0);
+    private final PerlinNoise tallGrassNoise = new PerlinNoise(0);
+    private final PerlinNoise reedNoise = new PerlinNoise(0);
+    private final PerlinNoise kelpNoise = new PerlinNoise(0);
+    private final HeightEncoder heightEncoder;
+
+    // Buffers. All per tile buffers are indexed by dx * TILE_SIZE + dy, like
+    // the staging buffer, except the corner heights
+
+    /**
+     * Heights of the northwest corners of the tiles, indexed by
+     * dx * CORNER_STRIDE + dy. Has an extra row and column to allow
+     * calculations that need all four corners.
+     */
+    private final float[] cornerHeights = new float[CORNER_STRIDE * CORNER_STRIDE];
+
+    private final float[]
+            /**
+             * Top layer depths of the northwest corners of the tiles.
+             */
+            topLayerDepths = new float[TILE_SIZE * TILE_SIZE],
+
+            /**
+             * Maximum slopes of the tiles. 1.0 means 45 degrees.
+             */
+            slopes = new float[TILE_SIZE * TILE_SIZE],
+
+            /**
+             * Average heights of the tiles.
+             */
+            tileHeights = new float[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * Dirt and rock heights of the northwest corners of the tiles, in Wurm
+     * Unlimited units.
+     */
+    private final short[] wurmHeights = new short[TILE_SIZE * TILE_SIZE], rockHeights = new short[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * Ordinals of the most prevalent terrain types of the tiles.
+     */
+    private final byte[] terrains = new byte[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * Most prevalent block IDs of the tiles, or -1 if none of the blocks is
+     * supported.
+     */
+    private final short[] blocks = new short[TILE_SIZE * TILE_SIZE];
+
+    private final int[] terrainBuckets = new int[TERRAINS.length], blockIdBuckets = new int[256];
+
+    // Sample rasters
+
+    /**
+     * The tile being processed and its eight neighbours, in x-major order.
+     */
+    private final Tile[] neighbourhood = new Tile[9];
+
+    /**
+     * Heights of the blocks.
+     */
+    private final float[] heightSamples = new float[RASTER_SIZE * RASTER_SIZE];
+
+    /**
+     * Top layer depths of the blocks.
+     */
+    private final int[] topLayerDepthSamples = new int[RASTER_SIZE * RASTER_SIZE];
+
+    /**
+     * Terrain types of the blocks, as unsigned {@link Terrain} ordinals.
+     */
+    private final byte[] terrainSamples = new byte[RASTER_SIZE * RASTER_SIZE];
+
+    /**
+     * Block IDs of the top layer material of the blocks.
+     */
+    private final int[] blockSamples = new int[RASTER_SIZE * RASTER_SIZE];
+
+    /**
+     * Totals of the height and top layer depth samples around each corner in
+     * Minecraft mode, indexed by {@code x * CORNER_COUNT + y}.
+     */
+    private final float[] heightSums = new float[CORNER_COUNT * CORNER_COUNT], topLayerDepthSums = new float[CORNER_COUNT * CORNER_COUNT];
+
+    // Noise buffers, indexed by x * TILE_SIZE + y
+
+    /**
+     * Which noise fields are needed for each tile, as a combination of the
+     * {@code NOISE_*} flags.
+     */
+    private final byte[] noiseDemand = new byte[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * For grass tiles: {@link #GRASS_ROLL_FLOWERS} if the tile should get
+     * flowers, otherwise the random number which decides between tall and
+     * wild grass.
+     */
+    private final byte[] grassRolls = new byte[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * For grass tiles with flowers: the flower type, or {@link #NO_FLOWER}.
+     */
+    private final byte[] flowerTypes = new byte[TILE_SIZE * TILE_SIZE];
+
+    private final float[] kelpNoiseValues = new float[TILE_SIZE * TILE_SIZE],
+            reedNoiseValues = new float[TILE_SIZE * TILE_SIZE],
+            grassJitters = new float[TILE_SIZE * TILE_SIZE],
+            grassNoiseValues = new float[TILE_SIZE * TILE_SIZE],
+            tallGrassNoiseValues = new float[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * The Wurm tiles of the current tile, which are written to the map in one
+     * go when the tile is complete. This is either {@link #ownTiles} or a
+     * buffer passed in by the caller of {@link #generateTile(int, int,
+     * TileBuffer)}.
+     */
+    private TileBuffer tiles;
+    private final TileBuffer ownTiles = new TileBuffer(TILE_SIZE);
+
+    /**
+     * The layers of the current tile, as decoded by
+     * {@link #decodeLayers(Tile, boolean)}, with their types, seeds, tree
+     * types and values per Wurm tile. Grown as needed.
+     */
+    private byte[] layerTypes = new byte[INITIAL_LAYER_CAPACITY];
+    private long[] layerSeeds = new long[INITIAL_LAYER_CAPACITY];
+    private TreeData.TreeType[][] layerTreeTypes = new TreeData.TreeType[INITIAL_LAYER_CAPACITY][];
+    private byte[][] layerRasters = new byte[INITIAL_LAYER_CAPACITY][TILE_SIZE * TILE_SIZE];
+
+    /**
+     * The Frost bits of the current tile, packed per row of blocks, for
+     * aggregating them in Minecraft mode.
+     */
+    private final long[] frostBits = new long[TILE_SIZE * FROST_WORDS_PER_ROW];
+
+    // Constants
+
+    /**
+     * The number of blocks by which the sample rasters extend beyond the tile
+     * on each side.
+     */
+    static final int HALO = 2;
+
+    /**
+     * The width and height of the sample rasters.
+     */
+    private static final int RASTER_SIZE = TILE_SIZE + 2 * HALO;
+
+    /**
+     * The number of corners along each side of a tile in Minecraft mode,
+     * including the extra row and column.
+     */
+    private static final int CORNER_COUNT = TILE_SIZE / 4 + 1;
+
+    /**
+     * The stride of {@link #cornerHeights}.
+     */
+    static final int CORNER_STRIDE = TILE_SIZE + 1;
+
+    private static final Terrain[] TERRAINS = Terrain.values();
+    private static final byte NOISE_KELP = 0x01, NOISE_REED = 0x02, NOISE_GRASS = 0x04;
+    private static final byte GRASS_ROLL_FLOWERS = -1, NO_FLOWER = -1;
+    private static final byte LAYER_FROST = 0, LAYER_TREES = 1, LAYER_SWAMP = 2;
+    private static final int INITIAL_LAYER_CAPACITY = 5;
+    private static final int FROST_WORDS_PER_ROW = TILE_SIZE / 64;
+    private static final Tiles.Tile DEFAULT_TILE_TYPE = TILE_DIRT;
+    private static final Logger logger = LoggerFactory.getLogger(TileExporter.class);
+    private static final Tiles.Tile[] BLOCK_MAPPING = {
+        null, // Air
+        TILE_ROCK, // Stone
+        TILE_GRASS, // Grass
+        TILE_DIRT, // Dirt
+        TILE_COBBLESTONE, // Cobblestone
+        TILE_PLANKS, // Wooden Plank
+        null, // Sapling
+        TILE_ROCK, // Bedrock
+        null, // Water
+        null, // Stationary Water
+        TILE_LAVA, // Lava
+        TILE_LAVA, // Stationary Lava
+        TILE_SAND, // Sand
+        TILE_GRAVEL, // Gravel
+        TILE_ROCK, // Gold Ore
+        TILE_ROCK, // Iron Ore
+        TILE_ROCK, // Coal Ore
+        null, // Wood
+        null, // Leaves
+        null, // Sponge
+        null, // Glass
+        TILE_ROCK, // Lapis Lazuli Ore
+        null, // Lapis Lazuli Block
+        null, // Dispenser
+        TILE_ROCK, // Sandstone
+        null, // Note Block
+        null, // Bed
+        null, // Powered Rail
+        null, // Detector Rail
+        null, // Sticky Piston
+        null, // Cobweb
+        null, // Tall Grass
+        null, // Dead Bush
+        null, // Piston
+        null, // Piston Extension
+        null, // Wool
+        null, // 36
+        null, // Dandelion
+        null, // Flower
+        null, // Brown Mushroom
+        null, // Red Mushroom
+        null, // Gold Block
+        null, // Iron Block
+        TILE_STONE_SLABS, // Double Slabs
+        TILE_STONE_SLABS, // Slab
+        TILE_STONE_SLABS, // Brick Block
+        null, // TNT
+        null, // Bookshelf
+        TILE_COBBLESTONE_ROUGH, // Mossy Cobblestone
+        TILE_ROCK, // Obsidian
+        null, // Torch
+        null, // Fire
+        null, // Monster Spawner
+        null, // Wooden Stairs
+        null, // Chest
+        null, // Redstone Wire
+        TILE_ROCK, // Diamond Ore
+        null, // Diamond Block
+        null, // Crafting Table
+        null, // Wheat
+        TILE_DIRT, // Tilled Dirt
+        null, // Furnace
+        null, // Burning Furnace
+        null, // Sign Post
+        null, // Wooden Door
+        null, // Ladder
+        null, // Rails
+        null, // Cobblestone Stairs
+        null, // Wall Sign
+        null, // Lever
+        null, // Stone Pressure Plate
+        null, // Iron Door
+        null, // Wooden Pressure Plate
+        TILE_ROCK, // Redstone Ore
+        TILE_ROCK, // Glowing Redstone Ore
+        null, // Redstone Torch (off)
+        null, // Redstone Torch (on)
+        null, // Stone Button
+        TILE_SNOW, // Snow
+        TILE_SNOW, // Ice
+        TILE_SNOW, // Snow Block
+        null, // Cactus
+        TILE_CLAY, // Clay Block
+        null, // Sugar Cane
+        null, // Jukebox
+        null, // Fence
+        null, // Pumpkin
+        TILE_ROCK, // Netherrack
+        TILE_SAND, // Soul Sand
+        null, // Glowstone Block
+        null, // Portal
+        null, // Jack-O-Lantern
+        null, // Cake
+        null, // Redstone Repeater (off)
+        null, // Redstone Repeater (on)
+        null, // Stained Glass
+        null, // Trapdoor
+        TILE_STONE_SLABS, // Hidden Silverfish
+        TILE_STONE_SLABS, // Stone Bricks
+        null, // Huge Brown Mushroom
+        null, // Huge Red Mushroom
+        null, // Iron Bars
+        null, // Glass Pane
+        null, // Melon
+        null, // Pumpkin Stem
+        null, // Melon Stem
+        null, // Vines
+        null, // Fence Gate
+        null, // Brick Stairs
+        null, // Stone Brick Stairs
+        TILE_MYCELIUM, // Mycelium
+        null, // Lily Pad
+        TILE_STONE_SLABS, // Nether Brick
+        null, // Nether Brick Fence
+        null, // Nether Brick Stairs
+        null, // Nether Wart
+        null, // Enchantment Table
+        null, // Brewing Stand
+        null, // Cauldron
+        null, // End Portal
+        null, // End Portal Frame
+        null, // End Stone
+        null, // Dragon Egg
+        null, // Redstone Lamp (off)
+        null, // Redstone Lamp (on)
+        TILE_PLANKS, // Wooden Double Slab
+        TILE_PLANKS, // Wooden Slab
+        null, // Cocoa Plant
+        null, // Sandstone Stairs
+        TILE_ROCK, // Emerald Ore
+        null, // Ender Chest
+        null, // Tripwire Hook
+        null, // Tripwire
+        null, // Emerald Block
+        null, // Pine Wood Stairs
+        null, // Birch Wood Stairs
+        null, // Jungle Wood Stairs
+        null, // Command Block
+        null, // Beacon
+        null, // Cobblestone Wall
+        null, // Flower Pot
+        null, // Carrots
+        null, // Potatoes
+        null, // Wooden Button
+        null, // Head
+        null, // Anvil
+        null, // Trapped Chest
+        null, // Weighted Pressure Plate (light)
+        null, // Weighted Pressure Plate (heavy)
+        null, // Redstone Comparator (unpowered)
+        null, // Redstone Comparator (powered)
+        null, // Daylight Sensor
+        null, // Redstone Block
+        TILE_ROCK, // Nether Quartz Ore
+        null, // Hopper
+        null, // Quartz Block
+        null, // Quartz Stairs
+        null, // Activator Rail
+        null, // Dropper
+        TILE_CLAY, // Stained Clay
+        null, // Stained Glass Pane
+        null, // Leaves 2
+        null, // Wood 2
+        null, // Acacia Wood Stairs
+        null, // Dark Oak Wood Stairs
+        null, // Slime Block
+        null, // Barrier
+        null, // Iron Trapdoor
+        TILE_ROCK, // Prismarine
+        null, // Sea Lantern
+        null, // Hay Bale
+        null, // Carpet
+        TILE_CLAY, // Hardened Clay
+        null, // Coal Block
+        TILE_SNOW, // Packed Ice
+        null, // Large Flower
+        null, // Standing Banner
+        null, // Wall Banner
+        null, // Inverted Daylight Sensor
+        TILE_ROCK, // Red Sandstone
+        null, // Red Sandstone Stairs
+        TILE_STONE_SLABS, // Double Red Sandstone Slab
+        TILE_STONE_SLABS, // Red Sandstone Slab
+        null, // Pine Wood Fence Gate
+        null, // Birch Wood Fence Gate
+        null, // Jungle Wood Fence Gate
+        null, // ark Oak Wood Fence Gate
+        null, // Acacia Wood Fence Gate
+        null, // Pine Wood Fence
+        null, // Birch Wood Fence
+        null, // Jungle Wood Fence
+        null, // Dark Oak Wood Fence
+        null, // Acacia Wood Fence
+        null, // Pine Wood Door
+        null, // Birch Wood Door
+        null, // Jungle Wood Door
+        null, // Acacia Wood Door
+        null, // Dark Oak Wood Door
+        null, // End Rod
+        null, // Chorus Plant
+        null, // Chorus Flower
+        TILE_STONE_SLABS, // Purpur Block
+        null, // Purpur Pillar
+        null, // Purpur Stairs
+        TILE_STONE_SLABS, // Double Purpur Slab
+        TILE_STONE_SLABS, // Purpur Slab
+        TILE_STONE_SLABS, // End Stone Bricks
+        null, // Beetroots
+        TILE_GRASS, // Grass Path
+        null, // End Gateway
+        null, // Repeating Command Block
+        null, // Chain Command Block
+        TILE_SNOW // Frosted Ice
+    };
+    private static final long DANDELION_SEED_OFFSET = 145351781L;
+    private static final long ROSE_SEED_OFFSET = 28286488L;
+    private static final long GRASS_SEED_OFFSET = 169191195L;
+    private static final long FLOWER_TYPE_FIELD_OFFSET = 65226710L;
+    private static final long DOUBLE_TALL_GRASS_SEED_OFFSET = 31695680L;
+    private static final long KELP_SEED_OFFSET = 18815862L;
+    private static final long REED_SEED_OFFSET = 79508482L;
+    private static final int FLOWER_INCIDENCE = 5;
+
+    // Purposes of the random numbers, for CoordinateRandom. Don't change
+    // these, as that would change the exported maps
+    private static final int RANDOM_MOSS = 1;
+    private static final int RANDOM_GRASS_FLOWERS = 2;
+    private static final int RANDOM_GRASS_JITTER = 3;
+    private static final int RANDOM_GRASS_HEIGHT = 4;
+    private static final int RANDOM_FLORA = 5;
+    private static final int RANDOM_BUSH = 6;
+    private static final int RANDOM_FLORA_TYPE = 7;
+    private static final int RANDOM_FOLIAGE_AGE = 8;
+    private static final int RANDOM_GROWTH_STAGE = 9;
+    private static final float FLOWER_CHANCE = PerlinNoise.getLevelForPromillage(40);
+    private static final float GRASS_CHANCE = PerlinNoise.getLevelForPromillage(400);
+    private static final float DOUBLE_TALL_GRASS_CHANCE = PerlinNoise.getLevelForPromillage(200);
+    private static final float REED_CHANCE = PerlinNoise.getLevelForPromillage(400);
+    private static final float KELP_CHANCE = PerlinNoise.getLevelForPromillage(100);
+
+    /**
+     * The tree types to place for each tree layer. Also used, in reverse, by
+     * the {@link WurmMapImporter}.
+     */
+    static final Map<Layer, TreeData.TreeType[]> TREE_TYPE_MAPPING = new HashMap<>();
+
+    static {
+        TREE_TYPE_MAPPING.put(DeciduousForest.INSTANCE, new TreeData.TreeType[] {BIRCH, OAK, MAPLE, CHESTNUT, LINDEN});
+        TREE_TYPE_MAPPING.put(PineForest.INSTANCE, new TreeData.TreeType[] {PINE, FIR, CEDAR});
+        TREE_TYPE_MAPPING.put(Jungle.INSTANCE, new TreeData.TreeType[] {APPLE, LEMON, OLIVE, CHERRY, WALNUT});
+        TREE_TYPE_MAPPING.put(SwampLand.INSTANCE, new TreeData.TreeType[] {WILLOW});
+    }
+}
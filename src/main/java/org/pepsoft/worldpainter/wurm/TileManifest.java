@@ -0,0 +1,217 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.Tile;
+import org.pepsoft.worldpainter.layers.Frost;
+import org.pepsoft.worldpainter.layers.Layer;
+import org.pepsoft.worldpainter.layers.TreeLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * A record of the contents of the WorldPainter tiles from which a Wurm
+ * Unlimited map was exported, stored in the map directory, so that a later
+ * export can work out which tiles have changed and only re-export those.
+ *
+ * <p>The manifest contains a hash of everything that affects the map as a
+ * whole (the settings, the seed, the water level, the top layer depth, the
+ * names of the custom terrains, the map size, etc.; see
+ * {@link #hashSettings(Object...)}) and a hash per tile of the heights,
+ * terrain types and supported layers of that tile (see
+ * {@link #hashTile(Tile)}).
+ */
+final class TileManifest {
+    TileManifest(long settingsHash, int[] tileCoords, long[] tileHashes, int tileCount) {
+        this.settingsHash = settingsHash;
+        this.tileCoords = tileCoords;
+        this.tileHashes = tileHashes;
+        this.tileCount = tileCount;
+    }
+
+    long getSettingsHash() {
+        return settingsHash;
+    }
+
+    /**
+     * Determine which tiles must be re-exported to bring a map exported from
+     * the tiles in this manifest up to date with a new set of tiles: those
+     * that are new or have changed, plus their neighbours, since the corners
+     * and edges of a Wurm Unlimited tile depend on the neighbouring
+     * WorldPainter tiles.
+     *
+     * @param newTileCoords The coordinates of the current tiles, as x,y pairs.
+     * @param newTileHashes The hashes of the current tiles.
+     * @param newTileCount The number of current tiles.
+     * @return For each of the current tiles whether it must be re-exported, or
+     * {@code null} if the map cannot be updated incrementally because tiles
+     * have been removed.
+     */
+    boolean[] getDirtyTiles(int[] newTileCoords, long[] newTileHashes, int newTileCount) {
+        Map<Long, Integer> newTileIndices = new HashMap<>(newTileCount * 2);
+        for (int i = 0; i < newTileCount; i++) {
+            newTileIndices.put(key(newTileCoords[i * 2], newTileCoords[i * 2 + 1]), i);
+        }
+        Map<Long, Long> oldHashes = new HashMap<>(tileCount * 2);
+        for (int i = 0; i < tileCount; i++) {
+            long key = key(tileCoords[i * 2], tileCoords[i * 2 + 1]);
+            if (! newTileIndices.containsKey(key)) {
+                // A tile has been removed; the map would still contain its
+                // old contents
+                return null;
+            }
+            oldHashes.put(key, tileHashes[i]);
+        }
+        boolean[] dirty = new boolean[newTileCount];
+        for (int i = 0; i < newTileCount; i++) {
+            final int tileX = newTileCoords[i * 2], tileY = newTileCoords[i * 2 + 1];
+            Long oldHash = oldHashes.get(key(tileX, tileY));
+            if ((oldHash == null) || (oldHash != newTileHashes[i])) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        Integer index = newTileIndices.get(key(tileX + dx, tileY + dy));
+                        if (index != null) {
+                            dirty[index] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Write the manifest to a file. The file is written under a temporary
+     * name first and then renamed, so that an interrupted write cannot leave
+     * a truncated manifest behind.
+     */
+    void save(File file) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(settingsHash);
+            out.writeInt(tileCount);
+            for (int i = 0; i < tileCount; i++) {
+                out.writeInt(tileCoords[i * 2]);
+                out.writeInt(tileCoords[i * 2 + 1]);
+                out.writeLong(tileHashes[i]);
+            }
+        }
+        if (file.exists() && (! file.delete())) {
+            throw new IOException("Could not delete " + file);
+        }
+        if (! tmpFile.renameTo(file)) {
+            throw new IOException("Could not move " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Load a manifest from a file.
+     *
+     * @return The manifest, or {@code null} if the file does not exist or
+     * could not be read.
+     */
+    static TileManifest load(File file) {
+        if (! file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION)) {
+                logger.warn("Unsupported manifest format in {}; ignoring manifest", file);
+                return null;
+            }
+            long settingsHash = in.readLong();
+            int tileCount = in.readInt();
+            int[] tileCoords = new int[tileCount * 2];
+            long[] tileHashes = new long[tileCount];
+            for (int i = 0; i < tileCount; i++) {
+                tileCoords[i * 2] = in.readInt();
+                tileCoords[i * 2 + 1] = in.readInt();
+                tileHashes[i] = in.readLong();
+            }
+            return new TileManifest(settingsHash, tileCoords, tileHashes, tileCount);
+        } catch (IOException e) {
+            logger.warn("I/O error reading manifest " + file + "; ignoring manifest", e);
+            return null;
+        }
+    }
+
+    /**
+     * Calculate a hash of the contents of a WorldPainter tile which affect
+     * the exported map: the heights, the terrain types and the values of the
+     * supported layers. Unsupported layers are ignored by the exporter and
+     * therefore not included.
+     */
+    static long hashTile(Tile tile) {
+        long hash = HASH_SEED;
+        for (int x = 0; x < TILE_SIZE; x++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                hash = mix(hash, Float.floatToIntBits(tile.getHeight(x, y)));
+                hash = mix(hash, tile.getTerrain(x, y).ordinal());
+            }
+        }
+        for (Layer layer: tile.getLayers()) {
+            if (layer.equals(Frost.INSTANCE)) {
+                hash = mix(hash, layer.getId().hashCode());
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    for (int y = 0; y < TILE_SIZE; y++) {
+                        hash = mix(hash, tile.getBitLayerValue(layer, x, y) ? 1 : 0);
+                    }
+                }
+            } else if (layer instanceof TreeLayer) {
+                hash = mix(hash, layer.getId().hashCode());
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    for (int y = 0; y < TILE_SIZE; y++) {
+                        hash = mix(hash, tile.getLayerValue(layer, x, y));
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calculate a hash of the settings and other properties which affect the
+     * exported map as a whole.
+     */
+    static long hashSettings(Object... values) {
+        long hash = HASH_SEED;
+        for (Object value: values) {
+            byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            for (byte b: bytes) {
+                hash = mix(hash, b);
+            }
+            hash = mix(hash, bytes.length);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        long h = (hash ^ (value & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private final long settingsHash;
+    private final int[] tileCoords;
+    private final long[] tileHashes;
+    private final int tileCount;
+
+    static final String FILE_NAME = "worldpainter-tiles.manifest";
+
+    private static final int MAGIC = 0x57505446; // "WPTF"
+    private static final int FORMAT_VERSION = 1;
+    private static final long HASH_SEED = 0x2545f4914f6cdd1dL;
+    private static final Logger logger = LoggerFactory.getLogger(TileManifest.class);
+}
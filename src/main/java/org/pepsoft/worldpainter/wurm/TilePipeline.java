@@ -0,0 +1,276 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.Dimension;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Exports a sequence of tiles as a pipeline of two stages with their own
+ * threads: generating threads, which each convert tiles with their own
+ * {@link TileExporter} into {@link TileBuffer}s, and writing threads, which
+ * write the completed buffers to the {@link MapSink}. The stages are
+ * connected by a bounded queue of completed buffers, and the buffers are
+ * recycled through a second queue, so that the memory used is fixed by the
+ * queue depth and the number of threads, and a writer which is slow to write,
+ * for instance because it is waiting for the operating system to page in part
+ * of a memory mapped map file, does not hold up the generation of the next
+ * tiles.
+ *
+ * <p>With zero writing threads the generating threads write their own tiles,
+ * as in a single stage.
+ *
+ * <p>The time the writing threads spend writing, the time the generating
+ * threads spend waiting for a free buffer (meaning the writers can't keep up)
+ * and the time the writing threads spend waiting for a tile (meaning the
+ * generators can't keep up), as well as the depth of the queue, are recorded
+ * in the {@link ExportStatistics}, for tuning the number of threads and the
+ * queue depth.
+ */
+final class TilePipeline {
+    /**
+     * Create a new pipeline.
+     *
+     * @param dim The dimension from which to export the tiles.
+     * @param generatorThreads The number of threads to generate tiles on.
+     * @param writerThreads The number of threads to write tiles to the map
+     *                      sink on, or zero to have the generating threads
+     *                      write their own tiles.
+     * @param queueDepth The number of buffers for completed tiles waiting to
+     *                   be written, in addition to the buffers the threads
+     *                   are working on.
+     * @param tileExporterFactory The factory to use to create a tile exporter
+     *                            for each generating thread.
+     * @param mapSink The map sink to write the tiles to.
+     * @param statistics The statistics to record the timings of the stages in.
+     * @param journal The journal to record the written tiles in and to
+     *                checkpoint periodically, or {@code null} if the export
+     *                is not resumable.
+     */
+    TilePipeline(Dimension dim, int generatorThreads, int writerThreads, int queueDepth, Supplier<TileExporter> tileExporterFactory, MapSink mapSink, ExportStatistics statistics, ExportJournal journal) {
+        if (generatorThreads < 1) {
+            throw new IllegalArgumentException("generatorThreads " + generatorThreads + " < 1");
+        }
+        if (writerThreads < 0) {
+            throw new IllegalArgumentException("writerThreads " + writerThreads + " < 0");
+        }
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("queueDepth " + queueDepth + " < 1");
+        }
+        this.dim = dim;
+        this.generatorThreads = generatorThreads;
+        this.writerThreads = writerThreads;
+        this.tileExporterFactory = tileExporterFactory;
+        this.mapSink = mapSink;
+        this.statistics = statistics;
+        this.journal = journal;
+        if (writerThreads > 0) {
+            // Enough buffers to fill the queue and have every thread working
+            // on one. The number of buffers is what bounds the queue, so the
+            // queue itself has room for all of them, plus the end markers
+            final int bufferCount = queueDepth + generatorThreads + writerThreads;
+            freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+            for (int i = 0; i < bufferCount; i++) {
+                freeBuffers.add(new TileBuffer(TILE_SIZE));
+            }
+            completedBuffers = new ArrayBlockingQueue<>(bufferCount + writerThreads);
+        } else {
+            freeBuffers = null;
+            completedBuffers = null;
+        }
+    }
+
+    /**
+     * Export the specified tiles. The tiles are handed out to the generating
+     * threads in order, but they may complete in any order. Since the tile
+     * exporters don't share any state and every tile maps to its own part of
+     * the Wurm Unlimited map, the result is the same regardless. Coordinates
+     * in the sequence where the dimension has no tile are skipped.
+     *
+     * <p>Apart from the map itself, the memory used does not depend on the
+     * number of tiles.
+     *
+     * @param tiles The coordinates of the tiles to export.
+     * @param progress The progress tracker to report the written tiles to.
+     * @return The IDs of the blocks encountered which are not supported and
+     * were exported as dirt.
+     */
+    BitSet run(final TileSequence tiles, final ProgressTracker progress) throws ProgressReceiver.OperationCancelled {
+        final AtomicInteger nextTile = new AtomicInteger();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(generatorThreads + writerThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Wurm Unlimited exporter " + threadNo.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+            private final AtomicInteger threadNo = new AtomicInteger();
+        });
+        final BitSet unsupportedBlocksSet = new BitSet(4096);
+        try {
+            List<Future<BitSet>> generators = new ArrayList<>(generatorThreads);
+            for (int i = 0; i < generatorThreads; i++) {
+                generators.add(executor.submit(() -> {
+                    try {
+                        return generate(tiles, nextTile, aborted, progress);
+                    } catch (RuntimeException | Error e) {
+                        // Stop the other threads as soon as possible
+                        aborted.set(true);
+                        throw e;
+                    }
+                }));
+            }
+            List<Future<Void>> writers = new ArrayList<>(writerThreads);
+            for (int i = 0; i < writerThreads; i++) {
+                writers.add(executor.submit(() -> {
+                    try {
+                        write(aborted, progress);
+                        return null;
+                    } catch (RuntimeException | Error e) {
+                        aborted.set(true);
+                        throw e;
+                    }
+                }));
+            }
+            executor.shutdown();
+            for (Future<BitSet> future: generators) {
+                unsupportedBlocksSet.or(await(future, progress));
+            }
+            // All tiles have been generated; tell the writers to stop once
+            // they have written the remaining tiles
+            for (int i = 0; i < writerThreads; i++) {
+                completedBuffers.add(END);
+            }
+            for (Future<Void> future: writers) {
+                await(future, progress);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProgressReceiver.OperationCancelled("Thread interrupted while exporting tiles");
+        } catch (ExecutionException e) {
+            throw WurmUnlimitedExporter.rethrow(e, "exporting tiles");
+        } finally {
+            // Make sure no threads are still writing to the map if we are
+            // bailing out
+            aborted.set(true);
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return unsupportedBlocksSet;
+    }
+
+    private BitSet generate(TileSequence tiles, AtomicInteger nextTile, AtomicBoolean aborted, ProgressTracker progress) throws InterruptedException {
+        final TileExporter tileExporter = tileExporterFactory.get();
+        final int tileCount = tiles.size();
+        int index;
+        while ((! aborted.get()) && ((index = nextTile.getAndIncrement()) < tileCount)) {
+            final int tileX = tiles.getX(index), tileY = tiles.getY(index);
+            if (dim.getTile(tileX, tileY) == null) {
+                continue;
+            }
+            if (writerThreads == 0) {
+                tileExporter.processTile(tileX, tileY);
+                tileWritten(tileY, progress);
+                continue;
+            }
+            TileBuffer buffer = freeBuffers.poll();
+            if (buffer == null) {
+                final long waitStart = System.nanoTime();
+                do {
+                    if (aborted.get()) {
+                        return tileExporter.getUnsupportedBlocks();
+                    }
+                    buffer = freeBuffers.poll(ProgressTracker.REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                } while (buffer == null);
+                statistics.add(ExportStatistics.Phase.GENERATORS_BLOCKED, System.nanoTime() - waitStart);
+            }
+            tileExporter.generateTile(tileX, tileY, buffer);
+            statistics.tileQueued(completedBuffers.size());
+            completedBuffers.add(buffer);
+        }
+        return tileExporter.getUnsupportedBlocks();
+    }
+
+    private void write(AtomicBoolean aborted, ProgressTracker progress) throws InterruptedException {
+        while (true) {
+            TileBuffer buffer = completedBuffers.poll();
+            if (buffer == null) {
+                final long waitStart = System.nanoTime();
+                do {
+                    if (aborted.get()) {
+                        return;
+                    }
+                    buffer = completedBuffers.poll(ProgressTracker.REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                } while (buffer == null);
+                statistics.add(ExportStatistics.Phase.WRITERS_IDLE, System.nanoTime() - waitStart);
+            }
+            if (buffer == END) {
+                return;
+            }
+            final long start = System.nanoTime();
+            mapSink.setTiles(buffer);
+            statistics.add(ExportStatistics.Phase.WRITING, System.nanoTime() - start);
+            statistics.tilesWritten(buffer.getSize() * buffer.getSize());
+            freeBuffers.add(buffer);
+            tileWritten(buffer.getSourceTileY(), progress);
+        }
+    }
+
+    private void tileWritten(int tileY, ProgressTracker progress) {
+        progress.worked(1);
+        if (journal != null) {
+            journal.tileWritten(tileY);
+        }
+    }
+
+    /**
+     * Wait for a thread of the pipeline to complete, reporting the progress
+     * and making checkpoints in the mean time.
+     */
+    private <T> T await(Future<T> future, ProgressTracker progress) throws ProgressReceiver.OperationCancelled, ExecutionException, InterruptedException {
+        while (true) {
+            try {
+                return future.get(ProgressTracker.REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                progress.update();
+                if (journal != null) {
+                    try {
+                        journal.checkpointIfDue();
+                    } catch (IOException e2) {
+                        throw new UncheckedIOException("I/O error making checkpoint", e2);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Dimension dim;
+    private final int generatorThreads, writerThreads;
+    private final Supplier<TileExporter> tileExporterFactory;
+    private final MapSink mapSink;
+    private final ExportStatistics statistics;
+    private final ExportJournal journal;
+    private final BlockingQueue<TileBuffer> freeBuffers, completedBuffers;
+
+    /**
+     * Marker placed in the queue of completed buffers to signal to a writing
+     * thread that there are no more tiles.
+     */
+    private static final TileBuffer END = new TileBuffer(0);
+}
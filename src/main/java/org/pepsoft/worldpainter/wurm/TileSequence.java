@@ -0,0 +1,187 @@
+package org.pepsoft.worldpainter.wurm;
+
+/**
+ * An ordered sequence of WorldPainter tile coordinates to process, addressed
+ * by index so that it can be divided among threads with a single shared
+ * counter.
+ */
+interface TileSequence {
+    /**
+     * Get the number of coordinates in the sequence.
+     */
+    int size();
+
+    /**
+     * Get the X coordinate of the tile at an index of the sequence.
+     */
+    int getX(int index);
+
+    /**
+     * Get the Y coordinate of the tile at an index of the sequence.
+     */
+    int getY(int index);
+
+    /**
+     * Get a sequence which visits all tile coordinates in a rectangle row by
+     * row, which is the order in which the tiles are stored in the map files.
+     * The coordinates are calculated from the index, so the sequence takes
+     * constant memory regardless of the size of the rectangle. The rectangle
+     * may include coordinates where the dimension has no tile.
+     *
+     * @param x1 The X coordinate of the west edge of the rectangle (inclusive).
+     * @param y1 The Y coordinate of the north edge of the rectangle (inclusive).
+     * @param x2 The X coordinate of the east edge of the rectangle (inclusive).
+     * @param y2 The Y coordinate of the south edge of the rectangle (inclusive).
+     */
+    static TileSequence rows(final int x1, final int y1, final int x2, final int y2) {
+        final int width = x2 - x1 + 1, size = width * (y2 - y1 + 1);
+        return new TileSequence() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public int getX(int index) {
+                return x1 + index % width;
+            }
+
+            @Override
+            public int getY(int index) {
+                return y1 + index / width;
+            }
+        };
+    }
+
+    /**
+     * Get a sequence which visits all tile coordinates in a rectangle in
+     * Z-order (Morton order): recursively quadrant by quadrant, so that tiles
+     * which are processed around the same time are close together in both
+     * directions. Unlike {@link #rows(int, int, int, int)} the coordinates
+     * are listed up front, taking eight bytes per tile.
+     *
+     * @param x1 The X coordinate of the west edge of the rectangle (inclusive).
+     * @param y1 The Y coordinate of the north edge of the rectangle (inclusive).
+     * @param x2 The X coordinate of the east edge of the rectangle (inclusive).
+     * @param y2 The Y coordinate of the south edge of the rectangle (inclusive).
+     */
+    static TileSequence zOrder(int x1, int y1, int x2, int y2) {
+        return curve(x1, y1, x2, y2, false);
+    }
+
+    /**
+     * Get a sequence which visits all tile coordinates in a rectangle along a
+     * Hilbert curve, which like {@link #zOrder(int, int, int, int)} keeps
+     * consecutive tiles close together, but without the long jumps between
+     * quadrants. The coordinates are listed up front, taking eight bytes per
+     * tile.
+     *
+     * @param x1 The X coordinate of the west edge of the rectangle (inclusive).
+     * @param y1 The Y coordinate of the north edge of the rectangle (inclusive).
+     * @param x2 The X coordinate of the east edge of the rectangle (inclusive).
+     * @param y2 The Y coordinate of the south edge of the rectangle (inclusive).
+     */
+    static TileSequence hilbert(int x1, int y1, int x2, int y2) {
+        return curve(x1, y1, x2, y2, true);
+    }
+
+    /**
+     * Get a sequence which visits all tile coordinates in a rectangle in the
+     * specified order.
+     *
+     * @param order The order: {@code rows}, {@code zorder} or
+     *              {@code hilbert}.
+     * @throws IllegalArgumentException If the order is not one of the above.
+     */
+    static TileSequence inOrder(String order, int x1, int y1, int x2, int y2) {
+        switch (order) {
+            case "rows":
+                return rows(x1, y1, x2, y2);
+            case "zorder":
+                return zOrder(x1, y1, x2, y2);
+            case "hilbert":
+                return hilbert(x1, y1, x2, y2);
+            default:
+                throw new IllegalArgumentException("Unknown tile order \"" + order + "\"");
+        }
+    }
+
+    /**
+     * List the coordinates of a rectangle in Z-order or along a Hilbert curve,
+     * by walking the curve over the smallest power of two square which covers
+     * the rectangle and skipping the points outside it.
+     */
+    static TileSequence curve(int x1, int y1, int x2, int y2, boolean hilbert) {
+        final int width = x2 - x1 + 1, height = y2 - y1 + 1;
+        int side = 1;
+        while ((side < width) || (side < height)) {
+            side <<= 1;
+        }
+        final int[] tileCoords = new int[width * height * 2];
+        int count = 0;
+        for (long d = 0, points = (long) side * side; d < points; d++) {
+            int dx, dy;
+            if (hilbert) {
+                // Convert the distance along the curve to coordinates, level
+                // by level, rotating and flipping each quadrant as required
+                dx = 0;
+                dy = 0;
+                long t = d;
+                for (int s = 1; s < side; s <<= 1) {
+                    final int rx = (int) (1 & (t >> 1)), ry = (int) (1 & (t ^ rx));
+                    if (ry == 0) {
+                        if (rx == 1) {
+                            dx = s - 1 - dx;
+                            dy = s - 1 - dy;
+                        }
+                        final int tmp = dx;
+                        dx = dy;
+                        dy = tmp;
+                    }
+                    dx += s * rx;
+                    dy += s * ry;
+                    t >>= 2;
+                }
+            } else {
+                // De-interleave the bits of the distance
+                dx = 0;
+                dy = 0;
+                for (int bit = 0; (1 << bit) < side; bit++) {
+                    dx |= (int) ((d >> (bit * 2)) & 1) << bit;
+                    dy |= (int) ((d >> (bit * 2 + 1)) & 1) << bit;
+                }
+            }
+            if ((dx < width) && (dy < height)) {
+                tileCoords[count * 2] = x1 + dx;
+                tileCoords[count * 2 + 1] = y1 + dy;
+                count++;
+            }
+        }
+        return of(tileCoords, count);
+    }
+
+    /**
+     * Get a sequence of explicitly listed tile coordinates.
+     *
+     * @param tileCoords The coordinates, as x,y pairs.
+     * @param tileCount The number of coordinates in {@code tileCoords}.
+     */
+    static TileSequence of(final int[] tileCoords, final int tileCount) {
+        return new TileSequence() {
+            @Override
+            public int size() {
+                return tileCount;
+            }
+
+            @Override
+            public int getX(int index) {
+                return tileCoords[index * 2];
+            }
+
+            @Override
+            public int getY(int index) {
+                return tileCoords[index * 2 + 1];
+            }
+        };
+    }
+}
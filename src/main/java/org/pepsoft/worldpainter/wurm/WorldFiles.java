@@ -0,0 +1,43 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.Terrain;
+import org.pepsoft.worldpainter.UnloadableWorldException;
+import org.pepsoft.worldpainter.World2;
+import org.pepsoft.worldpainter.util.WorldIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * Loads WorldPainter worlds for the command line tools, which run without the
+ * WorldPainter user interface.
+ */
+final class WorldFiles {
+    private WorldFiles() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Load a world file and set it up as WorldPainter does when it opens a
+     * world: the custom terrain materials of the world are installed as the
+     * materials of the custom terrain types, which are global. Without that
+     * the custom terrains have no name and no material, so they could not be
+     * exported or matched by name (see {@link TerrainRules}).
+     */
+    static World2 load(File worldFile) throws IOException, UnloadableWorldException {
+        logger.info("Loading world {}", worldFile);
+        final World2 world;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(worldFile))) {
+            WorldIO worldIO = new WorldIO();
+            worldIO.load(in);
+            world = worldIO.getWorld();
+        }
+        for (int i = 0; i < Terrain.CUSTOM_TERRAIN_COUNT; i++) {
+            Terrain.setCustomMaterial(i, world.getMixedMaterial(i));
+        }
+        return world;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(WorldFiles.class);
+}
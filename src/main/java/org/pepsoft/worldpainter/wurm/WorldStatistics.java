@@ -0,0 +1,122 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.Dimension;
+import org.pepsoft.worldpainter.Tile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
+
+/**
+ * Statistics about the terrain of a dimension which are needed to show the
+ * Wurm Unlimited map dimensions, and which require scanning all tiles. The
+ * statistics are cached per dimension, and remain valid until the dimension
+ * is changed (as determined by {@link Dimension#getChangeNo()}).
+ */
+final class WorldStatistics {
+    private WorldStatistics(long changeNo, int lowestHeight, int highestHeight) {
+        this.changeNo = changeNo;
+        this.lowestHeight = lowestHeight;
+        this.highestHeight = highestHeight;
+    }
+
+    /**
+     * Get the lowest terrain height of the dimension, or
+     * {@link Integer#MAX_VALUE} if it has no tiles.
+     */
+    int getLowestHeight() {
+        return lowestHeight;
+    }
+
+    /**
+     * Get the highest terrain height of the dimension, or
+     * {@link Integer#MIN_VALUE} if it has no tiles.
+     */
+    int getHighestHeight() {
+        return highestHeight;
+    }
+
+    /**
+     * Get the cached statistics of a dimension, if it has been scanned and has
+     * not been changed since.
+     *
+     * @return The cached statistics, or {@code null} if the dimension must be
+     * scanned.
+     */
+    static WorldStatistics getCached(Dimension dim) {
+        WorldStatistics statistics = CACHE.get(dim);
+        return ((statistics != null) && (statistics.changeNo == dim.getChangeNo())) ? statistics : null;
+    }
+
+    /**
+     * Scan all tiles of a dimension, in parallel, and cache the results. The
+     * dimension must not be modified while it is being scanned.
+     *
+     * @param dim The dimension to scan.
+     * @param cancelled Whether the scan has been cancelled, in which case the
+     *                  remaining tiles are skipped. Checked from multiple
+     *                  threads.
+     * @return The statistics, or {@code null} if the scan was cancelled.
+     */
+    static WorldStatistics scan(Dimension dim, BooleanSupplier cancelled) {
+        final long changeNo = dim.getChangeNo();
+        final int maxHeight = dim.getMaxHeight() - 1;
+        final AtomicBoolean fullRangeFound = new AtomicBoolean();
+        final long range = new ArrayList<>(dim.getTiles()).parallelStream()
+                .mapToLong(tile -> (fullRangeFound.get() || cancelled.getAsBoolean()) ? EMPTY_RANGE : scanTile(tile, maxHeight, fullRangeFound))
+                .reduce(EMPTY_RANGE, WorldStatistics::union);
+        if (cancelled.getAsBoolean()) {
+            return null;
+        }
+        WorldStatistics statistics = new WorldStatistics(changeNo, (int) (range >> 32), (int) range);
+        CACHE.put(dim, statistics);
+        return statistics;
+    }
+
+    /**
+     * Get the height range of a tile, stopping early once the full height
+     * range of the dimension has been found, since the range can then not get
+     * any wider.
+     *
+     * @return The lowest height in the upper 32 bits and the highest height
+     * in the lower 32 bits.
+     */
+    private static long scanTile(Tile tile, int maxHeight, AtomicBoolean fullRangeFound) {
+        int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+        for (int x = 0; x < TILE_SIZE; x++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                int height = tile.getIntHeight(x, y);
+                if (height < lowest) {
+                    lowest = height;
+                }
+                if (height > highest) {
+                    highest = height;
+                }
+            }
+            if ((lowest <= 0) && (highest >= maxHeight)) {
+                fullRangeFound.set(true);
+                break;
+            }
+        }
+        return range(lowest, highest);
+    }
+
+    private static long range(int lowest, int highest) {
+        return (((long) lowest) << 32) | (highest & 0xffffffffL);
+    }
+
+    private static long union(long range1, long range2) {
+        return range(Math.min((int) (range1 >> 32), (int) (range2 >> 32)), Math.max((int) range1, (int) range2));
+    }
+
+    private final long changeNo;
+    private final int lowestHeight, highestHeight;
+
+    private static final long EMPTY_RANGE = range(Integer.MAX_VALUE, Integer.MIN_VALUE);
+    private static final Map<Dimension, WorldStatistics> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+}
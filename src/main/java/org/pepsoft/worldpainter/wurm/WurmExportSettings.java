@@ -0,0 +1,139 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+
+import java.util.Properties;
+
+/**
+ * The settings for an export to a Wurm Unlimited map, as chosen by the user on
+ * the {@link WurmSettingsDialog} or passed to the {@link HeadlessExporter}.
+ */
+final class WurmExportSettings {
+    WurmExportSettings(ScalingMode scalingMode, int threads, boolean incremental, boolean streaming) {
+        this(scalingMode, threads, incremental, streaming, defaultConfig());
+    }
+
+    WurmExportSettings(ScalingMode scalingMode, int threads, boolean incremental, boolean streaming, Properties config) {
+        if (scalingMode == null) {
+            throw new NullPointerException("scalingMode");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads " + threads + " < 1");
+        }
+        this.scalingMode = scalingMode;
+        this.threads = threads;
+        this.incremental = incremental;
+        this.streaming = streaming;
+        this.config = config;
+    }
+
+    ScalingMode getScalingMode() {
+        return scalingMode;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Whether to only re-export the tiles which have changed since the last
+     * export, if the map already exists and was exported with the same
+     * settings. See {@link TileManifest}.
+     */
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Whether to write the map files directly, with a {@link StreamingMapSink},
+     * rather than through the Wurm API, which keeps the entire map in memory.
+     */
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Get the tuning parameters of the exporter, such as
+     * {@code tile.kelp.minimumDepth}.
+     */
+    Properties getConfig() {
+        return config;
+    }
+
+    /**
+     * Create settings from a set of properties, for instance loaded from a
+     * configuration file. Recognised are {@code scalingMode} (one of the
+     * {@link ScalingMode} names; default {@code MINECRAFT}), {@code threads}
+     * (default: the number of processors), {@code incremental} and
+     * {@code streaming} ({@code true} or {@code false}; default
+     * {@code false}) and the tuning parameters of the
+     * exporter (see {@link #defaultConfig()}).
+     *
+     * @throws IllegalArgumentException If one of the properties has an invalid
+     * value.
+     */
+    static WurmExportSettings fromProperties(Properties properties) {
+        Properties config = defaultConfig();
+        for (String key: properties.stringPropertyNames()) {
+            if ((! key.equals(SCALING_MODE)) && (! key.equals(THREADS)) && (! key.equals(INCREMENTAL)) && (! key.equals(STREAMING))) {
+                config.setProperty(key, properties.getProperty(key));
+            }
+        }
+        ScalingMode scalingMode;
+        try {
+            scalingMode = ScalingMode.valueOf(properties.getProperty(SCALING_MODE, ScalingMode.MINECRAFT.name()).trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + SCALING_MODE + ": " + properties.getProperty(SCALING_MODE), e);
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(properties.getProperty(THREADS, Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + THREADS + ": " + properties.getProperty(THREADS), e);
+        }
+        boolean incremental = Boolean.parseBoolean(properties.getProperty(INCREMENTAL, "false").trim());
+        boolean streaming = Boolean.parseBoolean(properties.getProperty(STREAMING, "false").trim());
+        return new WurmExportSettings(scalingMode, threads, incremental, streaming, config);
+    }
+
+    /**
+     * Get the default tuning parameters of the exporter. Set
+     * {@code random.legacy} to {@code true} to place moss, grass, flowers,
+     * bushes and trees exactly like versions of the exporter before 1.2.0.
+     * {@code pipeline.writers} and {@code pipeline.queueDepth} set the number
+     * of threads writing tiles to the map, in addition to the threads
+     * generating them, and the number of generated tiles which may be waiting
+     * for them (see {@link TilePipeline}). With zero writing threads the
+     * generating threads write their own tiles. {@code pipeline.order} sets
+     * the order in which the tiles are exported: {@code rows}, which matches
+     * the row by row layout of the map files, {@code zorder} or
+     * {@code hilbert} (see {@link TileSequence}). {@code pipeline.sink} can
+     * be set to export the tiles without creating a map: to {@code memory}
+     * (see {@link InMemoryMapSink}), {@code discard} (see
+     * {@link DiscardMapSink}), for measuring the speed of the conversion, or
+     * {@code checksum} (see {@link ChecksumMapSink}), for checking that the
+     * conversion is deterministic. {@code pipeline.heightEncoder} can be set
+     * to {@code scalar} to not use the vectorised height encoder even if it
+     * is available (see {@link HeightEncoder}). The {@code pipeline.*}
+     * settings don't affect the contents of the map, so they may be changed
+     * between incremental exports and before resuming an export.
+     */
+    static Properties defaultConfig() {
+        Properties config = new Properties();
+        config.put("tile.kelp.minimumDepth", "3");
+        config.put("random.legacy", "false");
+        config.put("pipeline.writers", "1");
+        config.put("pipeline.queueDepth", "16");
+        config.put("pipeline.order", "rows");
+        config.put("pipeline.sink", "map");
+        config.put("pipeline.heightEncoder", "auto");
+        return config;
+    }
+
+    private final ScalingMode scalingMode;
+    private final int threads;
+    private final boolean incremental, streaming;
+    private final Properties config;
+
+    static final String SCALING_MODE = "scalingMode", THREADS = "threads", INCREMENTAL = "incremental", STREAMING = "streaming";
+}
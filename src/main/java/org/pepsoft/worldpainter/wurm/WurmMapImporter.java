@@ -0,0 +1,449 @@
+package org.pepsoft.worldpainter.wurm;
+
+import com.wurmonline.mesh.Tiles;
+import com.wurmonline.mesh.TreeData;
+import org.pepsoft.util.ProgressReceiver;
+import org.pepsoft.worldpainter.*;
+import org.pepsoft.worldpainter.layers.DeciduousForest;
+import org.pepsoft.worldpainter.layers.Layer;
+import org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.wurmonline.mesh.Tiles.Tile.*;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.pepsoft.worldpainter.Constants.*;
+
+/**
+ * Imports an existing Wurm Unlimited map into a new WorldPainter world, so
+ * that a map can be edited in WorldPainter and exported again.
+ *
+ * <p>The top and rock layer files are read directly, in the layout described
+ * by {@link MapFormat}, through memory mapped stripes of one row of
+ * WorldPainter tiles each, which are decoded in parallel. The map is
+ * imported one to one horizontally: every Wurm tile becomes one block, so
+ * the world should be exported again with one of the Wurm scaling modes. The
+ * heights are imported one to one vertically too if they fit in the maximum
+ * height of the platform, or otherwise divided by four, as in
+ * {@link ScalingMode#WURM_SCALED}; the scaling mode is stored on the
+ * dimension so that the export settings dialog defaults to it.
+ *
+ * <p>The heights are imported so that exporting them again yields exactly the
+ * same heights, taking into account that the exporter rounds half up and
+ * then truncates towards zero (see {@link HeightEncoder}). The rock layer is
+ * only used to import tiles without dirt on top as rock; the depth of the top
+ * layer is a setting of the dimension and is not imported.
+ *
+ * <p>Tile types are mapped to the terrain types which {@link TerrainRules}
+ * turns into them. Trees and bushes become the tree layer from which the
+ * exporter places their type, at full intensity, on grass. Steppe, tundra,
+ * marsh and moss become the custom terrains named W:Steppe, W:Tundra, W:Marsh
+ * and W:Moss if those are configured (when importing from the command line,
+ * by taking the custom terrains from an existing world). Otherwise moss, like
+ * kelp, becomes grass, on which the exporter places it at random, so that its
+ * exact positions are not preserved; and steppe, tundra and marsh become
+ * grass too, and are reported by {@link #getApproximatedTiles()}. Tile types
+ * which WorldPainter can't represent, such as roads and fields, are imported
+ * as dirt and reported by {@link #getUnsupportedTiles()}.
+ */
+final class WurmMapImporter {
+    /**
+     * Create a new importer.
+     *
+     * @param mapDir The directory containing the map files.
+     * @param threads The number of threads to decode the map on.
+     */
+    WurmMapImporter(File mapDir, int threads) {
+        this.mapDir = mapDir;
+        this.threads = threads;
+    }
+
+    /**
+     * Import the map.
+     *
+     * @param progressReceiver The progress receiver to report progress to. May
+     *                         be {@code null}.
+     * @return A new world containing the map as its surface dimension.
+     */
+    World2 doImport(ProgressReceiver progressReceiver) throws IOException, ProgressReceiver.OperationCancelled {
+        final long start = System.nanoTime();
+        final MapFormat format = MapFormat.get();
+        final MapFormat.LayerFormat topLayer = format.getLayer(MapFormat.TOP_LAYER), rockLayer = format.getLayer(MapFormat.ROCK_LAYER);
+        final File topFile = new File(mapDir, MapFormat.TOP_LAYER), rockFile = new File(mapDir, MapFormat.ROCK_LAYER);
+        final int powerOfTwo = getPowerOfTwo(topFile, topLayer);
+        if (getPowerOfTwo(rockFile, rockLayer) != powerOfTwo) {
+            throw new IOException("Top and rock layer files of " + mapDir + " are for different map sizes");
+        }
+        if (powerOfTwo < TILE_SIZE_BITS) {
+            throw new IOException("Map " + mapDir + " is smaller than one WorldPainter tile");
+        }
+        final int tilesPerSide = 1 << (powerOfTwo - TILE_SIZE_BITS);
+        logger.info("Importing Wurm Unlimited map of size 2^{} from {} using {} thread(s)", powerOfTwo, mapDir, threads);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Wurm Unlimited importer " + threadNo.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+            private final AtomicInteger threadNo = new AtomicInteger();
+        });
+        try (RandomAccessFile topIn = new RandomAccessFile(topFile, "r"); RandomAccessFile rockIn = new RandomAccessFile(rockFile, "r")) {
+            final FileChannel topChannel = topIn.getChannel(), rockChannel = rockIn.getChannel();
+            final ByteOrder byteOrder = format.getByteOrder();
+
+            // First pass: find the height range, to choose the water level
+            // and maximum height
+            final AtomicInteger rowsDone = new AtomicInteger();
+            final int totalRows = tilesPerSide * 2;
+            final List<Future<int[]>> rangeFutures = new ArrayList<>(tilesPerSide);
+            for (int row = 0; row < tilesPerSide; row++) {
+                final int tileY = row;
+                rangeFutures.add(executor.submit(() -> {
+                    final IntBuffer surface = mapStripe(topChannel, topLayer, powerOfTwo, tileY, byteOrder);
+                    int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+                    while (surface.hasRemaining()) {
+                        final short height = Tiles.decodeHeight(surface.get());
+                        lowest = Math.min(lowest, height);
+                        highest = Math.max(highest, height);
+                    }
+                    rowsDone.incrementAndGet();
+                    return new int[] {lowest, highest};
+                }));
+            }
+            int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+            for (Future<int[]> future: rangeFutures) {
+                final int[] range = await(future, rowsDone, totalRows, progressReceiver);
+                lowest = Math.min(lowest, range[0]);
+                highest = Math.max(highest, range[1]);
+            }
+
+            // Choose the vertical scale, water level and maximum height so
+            // that the lowest point is a few blocks above the bottom of the
+            // world
+            final int maxMaxHeight = WurmPlatformProvider.WURM_UNLIMITED.maxMaxHeight;
+            int verticalScale = 1;
+            if ((ceilDiv(-Math.min(lowest, 0), 10) + ceilDiv(Math.max(highest, 0), 10) + BOTTOM_MARGIN + 1) > maxMaxHeight) {
+                verticalScale = 4;
+            }
+            final int dirtsPerBlock = 10 * verticalScale;
+            final int waterLevel = ceilDiv(-Math.min(lowest, 0), dirtsPerBlock) + BOTTOM_MARGIN;
+            int maxHeight = 32;
+            while ((maxHeight < (waterLevel + ceilDiv(Math.max(highest, 0), dirtsPerBlock) + 1)) && (maxHeight < maxMaxHeight)) {
+                maxHeight *= 2;
+            }
+            logger.info("Wurm heights {} to {} dirts; importing with vertical scale 1:{}, water level {} and maximum height {}", lowest, highest, verticalScale, waterLevel, maxHeight);
+
+            final long seed = new Random().nextLong();
+            final World2 world = new World2(WurmPlatformProvider.WURM_UNLIMITED, maxHeight);
+            world.setName(mapDir.getName());
+            final TileFactory tileFactory = TileFactoryFactory.createFlatTileFactory(seed, Terrain.GRASS, maxHeight, waterLevel, waterLevel, false, false);
+            final Dimension dim = new Dimension(world, seed, tileFactory, DIM_NORMAL, maxHeight);
+            dim.setAttribute(WurmUnlimitedExporter.SCALING_MODE_KEY, ((verticalScale == 1) ? ScalingMode.WURM_UNSCALED : ScalingMode.WURM_SCALED).ordinal());
+
+            // Second pass: decode the tiles, one row of WorldPainter tiles per
+            // task, and add them to the dimension on this thread, in order
+            final float blocksPerDirt = 1.0f / dirtsPerBlock;
+            final int finalMaxHeight = maxHeight;
+            final Terrain[] terrains = TERRAINS.clone();
+            final BitSet approximatedTileIds = (BitSet) APPROXIMATED_TILE_IDS.clone();
+            applyCustomTerrains(terrains, approximatedTileIds, world);
+            final BitSet unsupportedTileIds = new BitSet(256), encounteredApproximatedTileIds = new BitSet(256);
+            final List<Future<Tile[]>> tileFutures = new ArrayList<>(tilesPerSide);
+            for (int row = 0; row < tilesPerSide; row++) {
+                final int tileY = row;
+                tileFutures.add(executor.submit(() -> {
+                    final Tile[] tiles = decodeRow(tileY, tilesPerSide, powerOfTwo, mapStripe(topChannel, topLayer, powerOfTwo, tileY, byteOrder), mapStripe(rockChannel, rockLayer, powerOfTwo, tileY, byteOrder), finalMaxHeight, waterLevel, blocksPerDirt, terrains, approximatedTileIds, unsupportedTileIds, encounteredApproximatedTileIds);
+                    rowsDone.incrementAndGet();
+                    return tiles;
+                }));
+            }
+            dim.setEventsInhibited(true);
+            try {
+                for (Future<Tile[]> future: tileFutures) {
+                    for (Tile tile: await(future, rowsDone, totalRows, progressReceiver)) {
+                        dim.addTile(tile);
+                    }
+                }
+            } finally {
+                dim.setEventsInhibited(false);
+            }
+            world.addDimension(dim);
+
+            unsupportedTiles.clear();
+            approximatedTiles.clear();
+            synchronized (unsupportedTileIds) {
+                unsupportedTileIds.stream().forEach(id -> {
+                    final Tiles.Tile tileType = Tiles.getTile((byte) id);
+                    unsupportedTiles.add((tileType != null) ? tileType.name() : ("unknown tile type " + id));
+                });
+                encounteredApproximatedTileIds.stream().forEach(id -> approximatedTiles.add(TILE_TYPES[id].name()));
+            }
+            if (! unsupportedTiles.isEmpty()) {
+                logger.warn("Tile types imported as dirt: {}", String.join(", ", unsupportedTiles));
+            }
+            if (! approximatedTiles.isEmpty()) {
+                logger.warn("Tile types imported as grass for lack of a matching custom terrain (see TerrainRules): {}", String.join(", ", approximatedTiles));
+            }
+            logger.info("Imported {} tiles in {} ms", tilesPerSide * tilesPerSide, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (progressReceiver != null) {
+                progressReceiver.setProgress(1.0f);
+            }
+            return world;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProgressReceiver.OperationCancelled("Thread interrupted while importing map");
+        } catch (ExecutionException e) {
+            throw WurmUnlimitedExporter.rethrow(e, "importing map");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the names of the tile types which were encountered during the last
+     * import but are not supported and were imported as dirt.
+     */
+    List<String> getUnsupportedTiles() {
+        return unsupportedTiles;
+    }
+
+    /**
+     * Get the names of the tile types which were encountered during the last
+     * import but could only be imported as grass, because no custom terrain
+     * with the corresponding name is configured.
+     */
+    List<String> getApproximatedTiles() {
+        return approximatedTiles;
+    }
+
+    /**
+     * Determine whether a directory contains a Wurm Unlimited map, by checking
+     * for its top and rock layer files.
+     */
+    static boolean isMap(File dir) {
+        return new File(dir, MapFormat.TOP_LAYER).isFile() && new File(dir, MapFormat.ROCK_LAYER).isFile();
+    }
+
+    /**
+     * Decode one row of WorldPainter tiles from the corresponding stripes of
+     * the top and rock layers.
+     */
+    private static Tile[] decodeRow(final int tileY, final int tilesPerSide, final int powerOfTwo, final IntBuffer surface, final IntBuffer rock, final int maxHeight, final int waterLevel, final float blocksPerDirt, final Terrain[] terrains, final BitSet approximatedTileIds, final BitSet unsupportedTileIds, final BitSet encounteredApproximatedTileIds) {
+        final Tile[] tiles = new Tile[tilesPerSide];
+        for (int tileX = 0; tileX < tilesPerSide; tileX++) {
+            tiles[tileX] = new Tile(tileX, tileY, maxHeight);
+        }
+        final int width = 1 << powerOfTwo;
+        final int[] surfaceRow = new int[width], rockRow = new int[width];
+        final float maxFloatHeight = maxHeight - 1;
+        final BitSet rowUnsupportedTileIds = new BitSet(256), rowApproximatedTileIds = new BitSet(256);
+        for (int dy = 0; dy < TILE_SIZE; dy++) {
+            surface.get(surfaceRow);
+            rock.get(rockRow);
+            for (int x = 0; x < width; x++) {
+                final Tile tile = tiles[x >> TILE_SIZE_BITS];
+                final int dx = x & TILE_SIZE_MASK, encodedTile = surfaceRow[x];
+                final short height = Tiles.decodeHeight(encodedTile);
+                // The exporter converts with (short) (dirts + 0.5f), so a
+                // height of h dirts comes from [h - 0.5, h + 0.5) if it is
+                // zero or more, but from (h - 1.5, h - 0.5] if it is
+                // negative. Import the middle of the range, so that the
+                // rounding errors of the tile heights can't push it out
+                final int dirts = (height < 0) ? (height - 1) : height;
+                tile.setHeight(dx, dy, Math.max(Math.min(waterLevel + dirts * blocksPerDirt, maxFloatHeight), 0.0f));
+                tile.setWaterLevel(dx, dy, waterLevel);
+                final int id = Tiles.decodeType(encodedTile) & 0xff;
+                final Tiles.Tile tileType = TILE_TYPES[id];
+                Terrain terrain = terrains[id];
+                if (tileType == null) {
+                    rowUnsupportedTileIds.set(id);
+                    terrain = Terrain.DIRT;
+                } else if (tileType.isTree() || tileType.isBush()) {
+                    final Layer layer = tileType.isTree() ? TREE_LAYERS.getOrDefault(tileType.getTreeType(Tiles.decodeData(encodedTile)), DeciduousForest.INSTANCE) : DeciduousForest.INSTANCE;
+                    tile.setLayerValue(layer, dx, dy, 15);
+                    terrain = Terrain.GRASS;
+                } else if (terrain == null) {
+                    rowUnsupportedTileIds.set(id);
+                    terrain = Terrain.DIRT;
+                } else if ((terrain == Terrain.GRASS) && approximatedTileIds.get(id)) {
+                    rowApproximatedTileIds.set(id);
+                }
+                if (((terrain == Terrain.GRASS) || (terrain == Terrain.DIRT)) && (height <= Tiles.decodeHeight(rockRow[x]))) {
+                    // No dirt left on top of the rock
+                    terrain = Terrain.ROCK;
+                }
+                tile.setTerrain(dx, dy, terrain);
+            }
+        }
+        if ((! rowUnsupportedTileIds.isEmpty()) || (! rowApproximatedTileIds.isEmpty())) {
+            synchronized (unsupportedTileIds) {
+                unsupportedTileIds.or(rowUnsupportedTileIds);
+                encounteredApproximatedTileIds.or(rowApproximatedTileIds);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Import the tile types which the exporter only creates from custom
+     * terrains with a particular name (see {@link TerrainRules}) as those
+     * custom terrains, if they are configured, and store the materials of
+     * those custom terrains in the new world.
+     *
+     * @param terrains The terrain types to import each tile type as, to
+     *                 update.
+     * @param approximatedTileIds The IDs of the tile types which are not
+     *                            imported as the terrain they are exported
+     *                            from, to update.
+     * @param world The new world.
+     */
+    private static void applyCustomTerrains(Terrain[] terrains, BitSet approximatedTileIds, World2 world) {
+        for (Terrain terrain: Terrain.values()) {
+            if (terrain.name().startsWith("CUSTOM_") && (terrain.getName() != null)) {
+                final Tiles.Tile tileType = TerrainRules.CUSTOM_TERRAIN_NAMES.get(terrain.getName().toLowerCase(Locale.ROOT));
+                if (tileType != null) {
+                    final int id = tileType.id & 0xff;
+                    logger.info("Importing {} as custom terrain {}", tileType.name(), terrain.getName());
+                    terrains[id] = terrain;
+                    approximatedTileIds.clear(id);
+                    final int index = Integer.parseInt(terrain.name().substring(7)) - 1;
+                    world.setMixedMaterial(index, Terrain.getCustomMaterial(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * Map the stripe of a layer file which contains one row of WorldPainter
+     * tiles.
+     */
+    private static IntBuffer mapStripe(FileChannel channel, MapFormat.LayerFormat layer, int powerOfTwo, int tileY, ByteOrder byteOrder) {
+        final long stripeBytes = (long) layer.bytesPerCell << (powerOfTwo + TILE_SIZE_BITS);
+        try {
+            return channel.map(READ_ONLY, layer.header.length + tileY * stripeBytes, stripeBytes).order(byteOrder).asIntBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("I/O error mapping row " + tileY + " of map layer", e);
+        }
+    }
+
+    /**
+     * Determine the size of a map from the length of one of its layer files.
+     */
+    private static int getPowerOfTwo(File file, MapFormat.LayerFormat layer) throws IOException {
+        if (layer.bytesPerCell != 4) {
+            throw new IOException("Unsupported map format: " + layer);
+        }
+        final long cells = (file.length() - layer.header.length) / layer.bytesPerCell;
+        final int powerOfTwo = (63 - Long.numberOfLeadingZeros(cells)) / 2;
+        if ((cells <= 0) || (cells != (1L << (powerOfTwo * 2))) || (powerOfTwo > 15)) {
+            throw new IOException("Unexpected size of " + file);
+        }
+        return powerOfTwo;
+    }
+
+    /**
+     * Wait for a task to complete, reporting the progress in the mean time.
+     */
+    private static <T> T await(Future<T> future, AtomicInteger rowsDone, int totalRows, ProgressReceiver progressReceiver) throws ProgressReceiver.OperationCancelled, ExecutionException, InterruptedException {
+        while (true) {
+            try {
+                return future.get(ProgressTracker.REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (progressReceiver != null) {
+                    progressReceiver.setProgress((float) rowsDone.get() / totalRows);
+                }
+            }
+        }
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private final File mapDir;
+    private final int threads;
+    private final List<String> unsupportedTiles = new ArrayList<>(), approximatedTiles = new ArrayList<>();
+
+    /**
+     * The number of blocks to leave below the lowest point of the map.
+     */
+    private static final int BOTTOM_MARGIN = 4;
+
+    /**
+     * The tile types and the terrain types to import them as, indexed by tile
+     * type ID. A tile type without a terrain type is either a tree or bush, or
+     * not supported.
+     */
+    private static final Tiles.Tile[] TILE_TYPES = new Tiles.Tile[256];
+    private static final Terrain[] TERRAINS = new Terrain[256];
+
+    /**
+     * The IDs of the tile types which are imported as grass, but are only
+     * exported from custom terrains with a particular name.
+     */
+    private static final BitSet APPROXIMATED_TILE_IDS = new BitSet(256);
+
+    /**
+     * The tree layers to import each tree type as.
+     */
+    private static final Map<TreeData.TreeType, Layer> TREE_LAYERS = new HashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(WurmMapImporter.class);
+
+    static {
+        final Map<Tiles.Tile, Terrain> terrains = new HashMap<>();
+        // Types which the exporter places on grass terrain
+        terrains.put(TILE_GRASS, Terrain.GRASS);
+        terrains.put(TILE_MOSS, Terrain.GRASS);
+        terrains.put(TILE_KELP, Terrain.GRASS);
+        terrains.put(TILE_REED, Terrain.BEACHES);
+        // Types which the exporter only creates from named custom terrains;
+        // imported as grass unless those are configured
+        for (Tiles.Tile tileType: new Tiles.Tile[] {TILE_STEPPE, TILE_TUNDRA, TILE_MARSH}) {
+            terrains.put(tileType, Terrain.GRASS);
+            APPROXIMATED_TILE_IDS.set(tileType.id & 0xff);
+        }
+        // Types with a terrain of their own
+        terrains.put(TILE_DIRT, Terrain.DIRT);
+        terrains.put(TILE_SAND, Terrain.SAND);
+        terrains.put(TILE_ROCK, Terrain.ROCK);
+        terrains.put(TILE_CLIFF, Terrain.ROCK);
+        terrains.put(TILE_LAVA, Terrain.LAVA);
+        terrains.put(TILE_SNOW, Terrain.SNOW);
+        terrains.put(TILE_GRAVEL, Terrain.GRAVEL);
+        terrains.put(TILE_CLAY, Terrain.CLAY);
+        terrains.put(TILE_COBBLESTONE, Terrain.COBBLESTONE);
+        terrains.put(TILE_COBBLESTONE_ROUGH, Terrain.MOSSY_COBBLESTONE);
+        terrains.put(TILE_TAR, Terrain.SOUL_SAND);
+        terrains.put(TILE_MYCELIUM, Terrain.MYCELIUM);
+        terrains.put(TILE_DIRT_PACKED, Terrain.PERMADIRT);
+        terrains.put(TILE_PEAT, Terrain.PODZOL);
+        for (Tiles.Tile tileType: Tiles.Tile.values()) {
+            final int id = tileType.id & 0xff;
+            if (terrains.containsKey(tileType) || tileType.isTree() || tileType.isBush()) {
+                TILE_TYPES[id] = tileType;
+                TERRAINS[id] = terrains.get(tileType);
+            }
+        }
+
+        for (Map.Entry<Layer, TreeData.TreeType[]> entry: TileExporter.TREE_TYPE_MAPPING.entrySet()) {
+            for (TreeData.TreeType treeType: entry.getValue()) {
+                TREE_LAYERS.put(treeType, entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.pepsoft.worldpainter.wurm;
+
+import org.pepsoft.worldpainter.mapexplorer.MapRecognizer;
+import org.pepsoft.worldpainter.mapexplorer.Node;
+
+import javax.swing.*;
+import java.io.File;
+
+/**
+ * Recognises Wurm Unlimited maps in the Map Explorer. A map is shown as a
+ * single node with its size; the contents of the map files are not browsable.
+ */
+final class WurmMapRecognizer implements MapRecognizer {
+    @Override
+    public boolean isMap(File dir) {
+        return WurmMapImporter.isMap(dir);
+    }
+
+    @Override
+    public Node getMapNode(File mapDir) {
+        return new MapNode(mapDir);
+    }
+
+    static final class MapNode extends Node {
+        MapNode(File mapDir) {
+            this.mapDir = mapDir;
+        }
+
+        @Override
+        public String getName() {
+            // Estimate the size from the length of the top layer file, which
+            // has a short header and four bytes per tile
+            final long tiles = new File(mapDir, MapFormat.TOP_LAYER).length() / 4;
+            final int powerOfTwo = (63 - Long.numberOfLeadingZeros(Math.max(tiles, 1))) / 2;
+            return mapDir.getName() + " (Wurm Unlimited map, 2^" + powerOfTwo + ")";
+        }
+
+        @Override
+        public Icon getIcon() {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        @Override
+        protected Node[] loadChildren() {
+            return new Node[0];
+        }
+
+        private final File mapDir;
+    }
+}
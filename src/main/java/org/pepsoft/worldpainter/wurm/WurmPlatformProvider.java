@@ -45,7 +45,7 @@ public class WurmPlatformProvider extends AbstractPlugin implements PlatformProv
 
     @Override
     public MapRecognizer getMapRecognizer() {
-        return null; // TODO: implement
+        return MAP_RECOGNIZER;
     }
 
     @Override
@@ -53,6 +53,8 @@ public class WurmPlatformProvider extends AbstractPlugin implements PlatformProv
         return Collections.singleton(WURM_UNLIMITED);
     }
 
+    private static final MapRecognizer MAP_RECOGNIZER = new WurmMapRecognizer();
+
     public static final Platform WURM_UNLIMITED = new Platform(
             "org.pepsoft.wurm",
             "Wurm Unlimited",
@@ -7,13 +7,20 @@ package org.pepsoft.worldpainter.wurm;
 
 import org.pepsoft.worldpainter.*;
 import org.pepsoft.worldpainter.Dimension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
-import static org.pepsoft.worldpainter.Constants.TILE_SIZE;
 import static org.pepsoft.worldpainter.Constants.TILE_SIZE_BITS;
 import static org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.SCALING_MODE_KEY;
+import static org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.INCREMENTAL_KEY;
+import static org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.STREAMING_KEY;
+import static org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.THREADS_KEY;
 import static org.pepsoft.worldpainter.wurm.WurmUnlimitedExporter.ScalingMode.*;
 
 /**
@@ -41,8 +48,14 @@ public class WurmSettingsDialog extends WorldPainterDialog {
                 radioButtonWurmUnscaled.setSelected(true);
                 break;
         }
+        int threads = dim.getAttribute(THREADS_KEY);
+        spinnerThreads.setValue((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+        checkBoxIncremental.setSelected(dim.getAttribute(INCREMENTAL_KEY));
+        checkBoxStreaming.setSelected(dim.getAttribute(STREAMING_KEY));
         updateWPInfo();
         updateWurmInfo();
+        spinnerThreads.addChangeListener(e -> updateEstimate());
+        checkBoxStreaming.addActionListener(e -> updateEstimate());
 
         getRootPane().setDefaultButton(buttonGo);
         setLocationRelativeTo(parent);
@@ -58,6 +71,25 @@ public class WurmSettingsDialog extends WorldPainterDialog {
         }
     }
 
+    public int getThreads() {
+        return (Integer) spinnerThreads.getValue();
+    }
+
+    public boolean isIncremental() {
+        return checkBoxIncremental.isSelected();
+    }
+
+    public boolean isStreaming() {
+        return checkBoxStreaming.isSelected();
+    }
+
+    /**
+     * Get the export settings chosen by the user.
+     */
+    WurmExportSettings getSettings() {
+        return new WurmExportSettings(getScalingMode(), getThreads(), isIncremental(), isStreaming());
+    }
+
     private void updateWurmInfo() {
         WurmUnlimitedExporter.ScalingMode scalingMode = getScalingMode();
         boolean scaledHorizontally = scalingMode == MINECRAFT, scaledVertically = scalingMode == WURM_SCALED;
@@ -71,39 +103,140 @@ public class WurmSettingsDialog extends WorldPainterDialog {
         } else {
             jLabel8.setVisible(false);
         }
+        this.powerOfTwo = powerOfTwo;
         int wurmSize = (int) Math.pow(2, powerOfTwo);
         labelWurmHorizontal.setText(String.format("%d by %d tiles", wurmSize, wurmSize));
         int waterLevel = ((HeightMapTileFactory) dim.getTileFactory()).getWaterHeight();
         if (scaledVertically) {
-            labelWurmVertical.setText(String.format("%d to %d dirts", (wpLowestBlock - waterLevel) * 40, (wpHighestBlock - waterLevel) * 40));
+            labelWurmVertical.setText(String.format("%d to %d dirts%s", (wpLowestBlock - waterLevel) * 40, (wpHighestBlock - waterLevel) * 40, heightsNote));
+        } else {
+            labelWurmVertical.setText(String.format("%d to %d dirts%s", (wpLowestBlock - waterLevel) * 10, (wpHighestBlock - waterLevel) * 10, heightsNote));
+        }
+        updateEstimate();
+    }
+
+    /**
+     * Show the estimated duration, size and memory use of the export for the
+     * current settings. The tiles are sampled once per scaling mode, in the
+     * background; the other settings are taken into account immediately.
+     */
+    private void updateEstimate() {
+        final WurmExportSettings settings = getSettings();
+        final WurmUnlimitedExporter.ScalingMode scalingMode = settings.getScalingMode();
+        final ExportEstimate estimate = estimates.get(scalingMode);
+        if (estimate == null) {
+            labelEstimate.setIcon(null);
+            labelEstimate.setText("Estimating export time and memory...");
+            if (estimateWorker == null) {
+                final int powerOfTwo = this.powerOfTwo;
+                estimateWorker = new SwingWorker<ExportEstimate, Void>() {
+                    @Override
+                    protected ExportEstimate doInBackground() {
+                        return ExportEstimate.measure(dim, scalingMode, powerOfTwo, settings.getConfig());
+                    }
+
+                    @Override
+                    protected void done() {
+                        if (isCancelled() || closed) {
+                            return;
+                        }
+                        estimateWorker = null;
+                        try {
+                            estimates.put(scalingMode, get());
+                            updateEstimate();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (ExecutionException e) {
+                            logger.error(e.getCause().getClass().getSimpleName() + " while estimating export", e.getCause());
+                            labelEstimate.setText("Could not estimate export time and memory");
+                        }
+                    }
+                };
+                estimateWorker.execute();
+            }
+            return;
+        }
+        final long peakHeapBytes = estimate.getPeakHeapBytes(settings), availableHeapBytes = ExportEstimate.getAvailableHeapBytes();
+        final StringBuilder sb = new StringBuilder("<html>");
+        sb.append("Estimated export time: ").append(ProgressTracker.formatDuration(estimate.getDurationSeconds(settings.getThreads()))).append("<br>");
+        sb.append("Size of map files: ").append(ExportEstimate.formatBytes(estimate.getMapBytes())).append("<br>");
+        sb.append("Memory needed: ").append(ExportEstimate.formatBytes(peakHeapBytes)).append(" of ").append(ExportEstimate.formatBytes(availableHeapBytes)).append(" available");
+        if (peakHeapBytes > availableHeapBytes) {
+            sb.append("<br><b>Not enough memory!</b> ");
+            sb.append(isStreaming() ? "Increase the maximum heap size (-Xmx)." : "Write the map files directly or increase the maximum heap size (-Xmx).");
+            labelEstimate.setIcon(ERROR_ICON);
         } else {
-            labelWurmVertical.setText(String.format("%d to %d dirts", (wpLowestBlock - waterLevel) * 10, (wpHighestBlock - waterLevel) * 10));
+            labelEstimate.setIcon(null);
         }
+        sb.append("</html>");
+        labelEstimate.setText(sb.toString());
     }
 
     private void updateWPInfo() {
         wpWidth = dim.getWidth() << TILE_SIZE_BITS;
         wpHeight = dim.getHeight() << TILE_SIZE_BITS;
-        wpLowestBlock = Integer.MAX_VALUE;
-        wpHighestBlock = Integer.MIN_VALUE;
-        int maxHeight = dim.getMaxHeight() - 1;
-outer:  for (Tile tile: dim.getTiles()) {
-            for (int x = 0; x < TILE_SIZE; x++) {
-                for (int y = 0; y < TILE_SIZE; y++) {
-                    int localHeight = tile.getIntHeight(x, y);
-                    if (localHeight < wpLowestBlock) {
-                        wpLowestBlock = localHeight;
-                    }
-                    if (localHeight > wpHighestBlock) {
-                        wpHighestBlock = localHeight;
+        labelWPHorizontal.setText(String.format("%d by %d blocks", wpWidth, wpHeight));
+        WorldStatistics statistics = WorldStatistics.getCached(dim);
+        if (statistics != null) {
+            setHeightRange(statistics);
+        } else {
+            // Scanning all tiles can take a while for large worlds, so do it
+            // in the background and show the possible height range until then
+            wpLowestBlock = 0;
+            wpHighestBlock = dim.getMaxHeight() - 1;
+            heightsNote = " (calculating...)";
+            labelWPVertical.setText(String.format("%d to %d blocks%s", wpLowestBlock, wpHighestBlock, heightsNote));
+            scanWorker = new SwingWorker<WorldStatistics, Void>() {
+                @Override
+                protected WorldStatistics doInBackground() {
+                    final Thread thread = Thread.currentThread();
+                    return WorldStatistics.scan(dim, thread::isInterrupted);
+                }
+
+                @Override
+                protected void done() {
+                    if (isCancelled() || closed) {
+                        return;
                     }
-                    if ((wpLowestBlock <= 0) && (wpHighestBlock >= maxHeight)) {
-                        break outer;
+                    scanWorker = null;
+                    try {
+                        setHeightRange(get());
+                        updateWurmInfo();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // Keep showing the possible height range
+                        logger.error(e.getCause().getClass().getSimpleName() + " while scanning world", e.getCause());
+                        heightsNote = " (could not scan)";
+                        labelWPVertical.setText(String.format("%d to %d blocks%s", wpLowestBlock, wpHighestBlock, heightsNote));
+                        updateWurmInfo();
                     }
                 }
-            }
+            };
+            scanWorker.execute();
         }
-        labelWPHorizontal.setText(String.format("%d by %d blocks", wpWidth, wpHeight));
+    }
+
+    /**
+     * Stop the background estimate and scan, if they are still running, so
+     * that they don't compete with the export for processors and memory.
+     */
+    private void cancelWorkers() {
+        closed = true;
+        if (estimateWorker != null) {
+            estimateWorker.cancel(true);
+            estimateWorker = null;
+        }
+        if (scanWorker != null) {
+            scanWorker.cancel(true);
+            scanWorker = null;
+        }
+    }
+
+    private void setHeightRange(WorldStatistics statistics) {
+        wpLowestBlock = statistics.getLowestHeight();
+        wpHighestBlock = statistics.getHighestHeight();
+        heightsNote = "";
         labelWPVertical.setText(String.format("%d to %d blocks", wpLowestBlock, wpHighestBlock));
     }
 
@@ -141,6 +274,11 @@ outer:  for (Tile tile: dim.getTiles()) {
         jLabel14 = new javax.swing.JLabel();
         labelWurmVertical = new javax.swing.JLabel();
         jLabel8 = new javax.swing.JLabel();
+        jLabel11 = new javax.swing.JLabel();
+        spinnerThreads = new javax.swing.JSpinner();
+        checkBoxIncremental = new javax.swing.JCheckBox();
+        checkBoxStreaming = new javax.swing.JCheckBox();
+        labelEstimate = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("Wurm Unlimited Export Settings");
@@ -242,6 +380,17 @@ outer:  for (Tile tile: dim.getTiles()) {
         jLabel8.setText("<html>The WorldPainter world is too large!<br>Only the northwest part will be exported.</html>");
         jLabel8.setVerticalTextPosition(javax.swing.SwingConstants.TOP);
 
+        jLabel11.setText("Number of threads to use:");
+
+        spinnerThreads.setModel(new javax.swing.SpinnerNumberModel(1, 1, 256, 1));
+
+        checkBoxIncremental.setText("Only re-export changed tiles if the map already exists");
+
+        checkBoxStreaming.setText("Write map files directly (uses less memory for large maps)");
+
+        labelEstimate.setText("Estimating export time and memory...");
+        labelEstimate.setVerticalTextPosition(javax.swing.SwingConstants.TOP);
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -273,6 +422,13 @@ outer:  for (Tile tile: dim.getTiles()) {
                                         .addComponent(jLabel5, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                                         .addComponent(buttonWurmScaledInfo))))))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(jLabel11)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(spinnerThreads, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                    .addComponent(checkBoxIncremental)
+                    .addComponent(checkBoxStreaming)
+                    .addComponent(labelEstimate)
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                         .addGap(0, 0, Short.MAX_VALUE)
                         .addComponent(buttonGo)
@@ -359,6 +515,16 @@ outer:  for (Tile tile: dim.getTiles()) {
                     .addComponent(labelWurmVertical))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(jLabel8, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addGap(18, 18, 18)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jLabel11)
+                    .addComponent(spinnerThreads, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(checkBoxIncremental)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(checkBoxStreaming)
+                .addGap(18, 18, 18)
+                .addComponent(labelEstimate)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(buttonCancel)
@@ -420,9 +586,26 @@ outer:  for (Tile tile: dim.getTiles()) {
         if (dim.getAttribute(SCALING_MODE_KEY) != scalingModeAttribute) {
             dim.setAttribute(SCALING_MODE_KEY, scalingModeAttribute);
         }
+        int threadsAttribute = getThreads();
+        if (dim.getAttribute(THREADS_KEY) != threadsAttribute) {
+            dim.setAttribute(THREADS_KEY, threadsAttribute);
+        }
+        if (dim.getAttribute(INCREMENTAL_KEY) != isIncremental()) {
+            dim.setAttribute(INCREMENTAL_KEY, isIncremental());
+        }
+        if (dim.getAttribute(STREAMING_KEY) != isStreaming()) {
+            dim.setAttribute(STREAMING_KEY, isStreaming());
+        }
+        cancelWorkers();
         ok();
     }//GEN-LAST:event_buttonGoActionPerformed
 
+    @Override
+    protected void cancel() {
+        cancelWorkers();
+        super.cancel();
+    }
+
     private void buttonCancelActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_buttonCancelActionPerformed
         cancel();
     }//GEN-LAST:event_buttonCancelActionPerformed
@@ -434,8 +617,11 @@ outer:  for (Tile tile: dim.getTiles()) {
     private javax.swing.JButton buttonMinecraftInfo;
     private javax.swing.JButton buttonWurmScaledInfo;
     private javax.swing.JButton buttonWurmUnscaledInfo;
+    private javax.swing.JCheckBox checkBoxIncremental;
+    private javax.swing.JCheckBox checkBoxStreaming;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel10;
+    private javax.swing.JLabel jLabel11;
     private javax.swing.JLabel jLabel12;
     private javax.swing.JLabel jLabel14;
     private javax.swing.JLabel jLabel2;
@@ -446,6 +632,7 @@ outer:  for (Tile tile: dim.getTiles()) {
     private javax.swing.JLabel jLabel7;
     private javax.swing.JLabel jLabel8;
     private javax.swing.JLabel jLabel9;
+    private javax.swing.JLabel labelEstimate;
     private javax.swing.JLabel labelWPHorizontal;
     private javax.swing.JLabel labelWPVertical;
     private javax.swing.JLabel labelWurmHorizontal;
@@ -453,10 +640,23 @@ outer:  for (Tile tile: dim.getTiles()) {
     private javax.swing.JRadioButton radioButtonMinecraft;
     private javax.swing.JRadioButton radioButtonWurmScaled;
     private javax.swing.JRadioButton radioButtonWurmUnscaled;
+    private javax.swing.JSpinner spinnerThreads;
     // End of variables declaration//GEN-END:variables
 
     private final Dimension dim;
-    private int wpWidth, wpHeight, wpLowestBlock, wpHighestBlock;
+    private final Map<WurmUnlimitedExporter.ScalingMode, ExportEstimate> estimates = new EnumMap<>(WurmUnlimitedExporter.ScalingMode.class);
+    private int wpWidth, wpHeight, wpLowestBlock, wpHighestBlock, powerOfTwo;
+    private SwingWorker<ExportEstimate, Void> estimateWorker;
+    private SwingWorker<WorldStatistics, Void> scanWorker;
+    private boolean closed;
+
+    /**
+     * A note to show after the height range if it is not the actual height
+     * range of the world, but the possible one.
+     */
+    private String heightsNote = "";
 
     private static final double LOG_2 = Math.log(2);
+    private static final Icon ERROR_ICON = new ImageIcon(WurmSettingsDialog.class.getResource("/org/pepsoft/worldpainter/icons/error.png"));
+    private static final Logger logger = LoggerFactory.getLogger(WurmSettingsDialog.class);
 }
\ No newline at end of file
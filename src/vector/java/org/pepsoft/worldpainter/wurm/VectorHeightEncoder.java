@@ -0,0 +1,86 @@
+package org.pepsoft.worldpainter.wurm;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link HeightEncoder} which encodes as many heights at once as fit in a
+ * SIMD register, using the incubating Vector API. Only loaded, by
+ * {@link HeightEncoder#create()}, if the JVM has the Vector API.
+ *
+ * <p>The float to int lane conversion of the Vector API is not compiled to
+ * SIMD instructions by all JVMs which have the API (on Java 17 it is many
+ * times slower than the scalar loop), so the heights are truncated to whole
+ * numbers with floating point arithmetic instead: adding and subtracting
+ * 1.5 * 2^23 rounds to the nearest whole number, which is then corrected
+ * towards zero, and adding 1.5 * 2^23 once more leaves the number in the low
+ * bits of the float. This is exact for magnitudes below 2^22; chunks with
+ * larger (or NaN) values are encoded by the scalar implementation, so the
+ * heights are always exactly the same as those of the scalar implementation.
+ */
+final class VectorHeightEncoder extends HeightEncoder {
+    @Override
+    void encodeRow(final float[] cornerHeights, final int cornerOffset, final float[] topLayerDepths, final int offset, final float waterLevel, final short[] dirtHeights, final short[] rockHeights, final int length) {
+        final int upperBound = SPECIES.loopBound(length);
+        int j = 0;
+        for (; j < upperBound; j += SPECIES.length()) {
+            final FloatVector heights = FloatVector.fromArray(SPECIES, cornerHeights, cornerOffset + j);
+            final FloatVector depths = FloatVector.fromArray(SPECIES, topLayerDepths, offset + j);
+            // Subtract in the same order as the scalar implementation, as
+            // floating point subtraction is not associative
+            final FloatVector dirt = heights.sub(waterLevel).mul(10f).add(0.5f);
+            final FloatVector rock = heights.sub(depths).sub(waterLevel).mul(10f).add(0.5f);
+            if (dirt.abs().compare(VectorOperators.LT, EXACT_LIMIT).and(rock.abs().compare(VectorOperators.LT, EXACT_LIMIT)).allTrue()) {
+                toShorts(dirt).intoArray(dirtHeights, offset + j);
+                toShorts(rock).intoArray(rockHeights, offset + j);
+            } else {
+                super.encodeRow(cornerHeights, cornerOffset + j, topLayerDepths, offset + j, waterLevel, dirtHeights, rockHeights, SPECIES.length());
+            }
+        }
+        if (j < length) {
+            super.encodeRow(cornerHeights, cornerOffset + j, topLayerDepths, offset + j, waterLevel, dirtHeights, rockHeights, length - j);
+        }
+    }
+
+    /**
+     * Truncate values with a magnitude below {@link #EXACT_LIMIT} and narrow
+     * them to shorts, as {@code (short) value} does.
+     */
+    private static ShortVector toShorts(final FloatVector values) {
+        FloatVector rounded = values.add(MAGIC).sub(MAGIC);
+        final VectorMask<Float> positive = values.compare(VectorOperators.GE, 0f);
+        rounded = rounded.sub(1f, rounded.compare(VectorOperators.GT, values).and(positive))
+                .add(1f, rounded.compare(VectorOperators.LT, values).andNot(positive));
+        return (ShortVector) rounded.add(MAGIC).reinterpretAsInts().sub(MAGIC_BITS)
+                .convertShape(VectorOperators.I2S, SHORT_SPECIES, 0);
+    }
+
+    @Override
+    String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Half the width of {@link #SPECIES}, so that it has the same number of
+     * lanes.
+     */
+    private static final VectorSpecies<Short> SHORT_SPECIES = VectorSpecies.of(short.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    /**
+     * 1.5 * 2^23, the smallest float with a unit in the last place of one,
+     * plus room for negative numbers, and its bit pattern.
+     */
+    private static final float MAGIC = 12582912f;
+    private static final int MAGIC_BITS = Float.floatToRawIntBits(MAGIC);
+
+    /**
+     * The magnitude below which {@link #toShorts(FloatVector)} is exact.
+     */
+    private static final float EXACT_LIMIT = 4194304f;
+}